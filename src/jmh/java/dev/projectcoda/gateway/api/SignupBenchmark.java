@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import dev.projectcoda.gateway.GatewayApplication;
+import dev.projectcoda.gateway.data.Rank;
+import dev.projectcoda.gateway.data.User;
+import dev.projectcoda.gateway.data.UserRepository;
+import dev.projectcoda.gateway.i18n.ErrorResponses;
+import dev.projectcoda.gateway.security.CaptchaChecker;
+import dev.projectcoda.gateway.security.PasswordHasher;
+import dev.projectcoda.gateway.security.Permissions;
+import dev.projectcoda.gateway.security.SiteVerifyStub;
+import dev.projectcoda.gateway.util.GravatarUtils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.Security;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the latency of a successful signup through {@link GatewayRestController#signup}, which verifies the
+ * reCAPTCHA, checks the username and email and hashes the password at once, with making the same calls one after
+ * another, as signup did before. Gateway runs against an in-memory MongoDB stand-in and a {@link SiteVerifyStub}
+ * that answers after {@link #captchaMillis}; the sample-time mode reports the p50 and p99 latencies:
+ * <pre>mvn -P jmh test-compile exec:exec -Djmh.args="SignupBenchmark"</pre>
+ * @author Gerard Sayson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SignupBenchmark {
+
+	@Param({"150"})
+	public int captchaMillis;
+
+	private final AtomicLong users = new AtomicLong();
+	private MongoServer mongo;
+	private SiteVerifyStub siteVerify;
+	private ConfigurableApplicationContext context;
+	private GatewayRestController controller;
+	private CaptchaChecker captchaChecker;
+	private UserRepository repository;
+	private PasswordHasher passwordHasher;
+
+	@Setup
+	public void setUp() throws IOException {
+		mongo = new MongoServer(new MemoryBackend());
+		InetSocketAddress address = mongo.bind();
+		siteVerify = new SiteVerifyStub();
+		siteVerify.setDelay(Duration.ofMillis(captchaMillis));
+		Security.setProperty("crypto.policy", "unlimited");
+		Security.addProvider(new BouncyCastleProvider());
+		context = new SpringApplicationBuilder(GatewayApplication.class)
+				.web(WebApplicationType.NONE)
+				.run(
+						"--coda.mongo-host=mongodb://" + address.getHostString() + ":" + address.getPort(),
+						"--coda.mongo-name=benchmark",
+						"--coda.recaptcha-secret=benchmark",
+						"--coda.recaptcha-verify-url=" + siteVerify.getUrl(),
+						"--logging.level.root=WARN"
+				);
+		controller = context.getBean(GatewayRestController.class);
+		captchaChecker = context.getBean(CaptchaChecker.class);
+		repository = context.getBean(UserRepository.class);
+		passwordHasher = context.getBean(PasswordHasher.class);
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+		siteVerify.close();
+		mongo.shutdownNow();
+	}
+
+	@Benchmark
+	public ResponseEntity<Response> concurrent() {
+		return check(controller.signup(request(), SiteVerifyStub.SLOW).join());
+	}
+
+	@Benchmark
+	public ResponseEntity<Response> sequential() {
+		UserSignUpRequest request = request();
+		if(!captchaChecker.verify(SiteVerifyStub.SLOW).join().passed()) {
+			return ResponseEntity.badRequest().body(new ErrorResponse(ErrorResponses.CAPTCHA_ERROR));
+		}
+		if(repository.existsByNormalizedUsername(User.normalize(request.username()))) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.USERNAME_IN_USE));
+		}
+		if(repository.existsByNormalizedEmail(User.normalize(request.email()))) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.EMAIL_IN_USE));
+		}
+		String password = passwordHasher.encode(request.password()).join();
+		UUID uuid = UUID.randomUUID();
+		repository.save(
+				User.builder()
+						.username(request.username())
+						.email(request.email())
+						.bio(null)
+						.rating(1200)
+						.uuid(uuid)
+						.rank(Rank.UNRANKED)
+						.permission(Permissions.USER)
+						.password(password)
+						.avatar(GravatarUtils.gravatar(request.email()))
+						.build()
+		);
+		return check(ResponseEntity.ok(new UserSignUpResponse(uuid)));
+	}
+
+	private UserSignUpRequest request() {
+		long n = users.incrementAndGet();
+		return new UserSignUpRequest("user" + n, "user" + n + "@example.com", "password" + n);
+	}
+
+	private static ResponseEntity<Response> check(ResponseEntity<Response> response) {
+		if(!response.getStatusCode().is2xxSuccessful()) throw new IllegalStateException("signup failed: " + response.getBody());
+		return response;
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of signing and verifying regular tokens with each {@link SigningAlgorithm}. The size of the
+ * tokens is printed once per algorithm, as it does not change from token to token:
+ * <pre>mvn -P jmh test-compile exec:exec -Djmh.args="SigningAlgorithmBenchmark"</pre>
+ * @author Gerard Sayson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SigningAlgorithmBenchmark {
+
+	@Param({"ES256", "ES384", "ES512", "ED25519"})
+	public SigningAlgorithm signingAlgorithm;
+
+	private TokenMinter minter;
+	private JWTVerifier verifier;
+	private String token;
+	private final String subject = UUID.randomUUID().toString();
+	private final List<String> permissions = List.of(Permissions.USER);
+
+	@Setup
+	public void setUp() {
+		KeyRing keyRing = KeyRing.ephemeral(signingAlgorithm);
+		minter = new TokenMinter(signingAlgorithm.create(keyRing));
+		verifier = JWT.require(signingAlgorithm.create(keyRing))
+				.withIssuer(AuthorizationService.ISSUER)
+				.withAudience(AuthorizationService.AUDIENCE)
+				.build();
+		token = sign();
+		System.out.println(signingAlgorithm + " tokens are " + token.length() + " bytes");
+	}
+
+	@Benchmark
+	public String sign() {
+		Instant now = Instant.now();
+		return minter.mint(UUID.randomUUID().toString(), subject, null, now, now.plus(2, ChronoUnit.HOURS), permissions, false);
+	}
+
+	@Benchmark
+	public DecodedJWT verify() {
+		return verifier.verify(token);
+	}
+
+}
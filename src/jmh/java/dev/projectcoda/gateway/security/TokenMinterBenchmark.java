@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares minting a regular token through {@link TokenMinter} with minting it through {@link JWT#create()}, as
+ * {@link AuthorizationService} did before. Run with {@code -prof gc} to see the allocation per token:
+ * <pre>mvn -P jmh test-compile exec:exec -Djmh.args="TokenMinterBenchmark -prof gc"</pre>
+ * @author Gerard Sayson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenMinterBenchmark {
+
+	@Param({"ES256", "ES384", "ES512", "ED25519"})
+	public SigningAlgorithm signingAlgorithm;
+
+	private Algorithm algorithm;
+	private TokenMinter minter;
+	private final String subject = UUID.randomUUID().toString();
+	private final List<String> permissions = List.of(Permissions.USER, Permissions.ADMIN);
+
+	@Setup
+	public void setUp() {
+		algorithm = signingAlgorithm.create(KeyRing.ephemeral(signingAlgorithm));
+		minter = new TokenMinter(algorithm);
+		if(!minter.isFastPath()) throw new IllegalStateException("TokenMinter is not taking its precomputed path");
+	}
+
+	@Benchmark
+	public String minter() {
+		Instant now = Instant.now();
+		return minter.mint(UUID.randomUUID().toString(), subject, null, now, now.plus(2, ChronoUnit.HOURS), permissions, false);
+	}
+
+	@Benchmark
+	public String jwtCreate() {
+		Instant now = Instant.now();
+		return JWT.create().withIssuer(AuthorizationService.ISSUER)
+				.withAudience(AuthorizationService.AUDIENCE)
+				.withJWTId(UUID.randomUUID().toString())
+				.withIssuedAt(now)
+				.withExpiresAt(now.plus(2, ChronoUnit.HOURS))
+				.withSubject(subject)
+				.withClaim("permissions", permissions)
+				.withClaim("refreshToken", false)
+				.sign(algorithm);
+	}
+
+}
@@ -10,11 +10,13 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import javax.validation.constraints.NotNull;
 import java.security.Security;
 
 @Slf4j
+@EnableScheduling
 @SpringBootApplication
 public class GatewayApplication implements CommandLineRunner {
 
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A request to modify several entries of the user's friend list at once.
+ * @param add If {@code true}, adds the UUIDs to the friend list. Else, {@code false} removes the UUIDs.
+ * @param friends The UUIDs of the friends. At most {@link #MAX_FRIENDS} friends can be modified per request.
+ * @see FriendListModifyRequest
+ * @author Gerard Sayson
+ */
+public record FriendListBatchModifyRequest(boolean add, @NotEmpty @Size(max = MAX_FRIENDS) Set<@NotNull UUID> friends) {
+
+	/**
+	 * The maximum number of friends in a single batch.
+	 */
+	public static final int MAX_FRIENDS = 100;
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A page of the friends of a user.
+ * @param friends The profile of each friend in the page, as returned by {@code GET /gateway/user/{id}}, in order.
+ * @param next The cursor to request the next page with, or {@code null} if this is the last page.
+ * @author Gerard Sayson
+ */
+public record FriendListResponse(List<Response> friends, @Nullable String next) implements Response {
+
+	/**
+	 * The number of friends in a page, unless the client asks for another.
+	 */
+	public static final int DEFAULT_LIMIT = 20;
+
+	/**
+	 * The maximum number of friends in a page.
+	 */
+	public static final int MAX_LIMIT = 100;
+
+}
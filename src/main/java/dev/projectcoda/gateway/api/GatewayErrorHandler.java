@@ -5,9 +5,21 @@
 
 package dev.projectcoda.gateway.api;
 
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import dev.projectcoda.gateway.data.User;
+import dev.projectcoda.gateway.i18n.ErrorResponses;
+import dev.projectcoda.gateway.security.CaptchaUnavailableException;
+import dev.projectcoda.gateway.util.HttpUtils;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * An error handler for internal Gateway exceptions
@@ -16,6 +28,9 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 @RestControllerAdvice
 public class GatewayErrorHandler {
 
+	// hashing jobs take tens of milliseconds, so a saturated queue drains within a second.
+	private static final String RETRY_AFTER_SECONDS = "1";
+
 	/**
 	 * Handles an exception.
 	 * @param e The exception to handle.
@@ -27,4 +42,78 @@ public class GatewayErrorHandler {
 		return ResponseEntity.internalServerError().body(new ErrorResponse("ERROR: " + e.getMessage()));
 	}
 
+	/**
+	 * Handles work that was turned away because a bounded executor is saturated, e.g. password hashing during
+	 * a login storm.
+	 * @param e The exception to handle.
+	 * @return a {@code 503 Service Unavailable} {@link ResponseEntity} with a {@code Retry-After} header.
+	 */
+	@ExceptionHandler
+	public ResponseEntity<ErrorResponse> handleRejectedExecution(RejectedExecutionException e) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+				.body(new ErrorResponse(ErrorResponses.OVERLOADED));
+	}
+
+	/**
+	 * Handles a request that is handled asynchronously, such as a login or signup, and was not answered within
+	 * {@link dev.projectcoda.gateway.conf.GatewayConfiguration#getAsyncRequestTimeout()}, e.g. because the database
+	 * or the hashing executor is backed up.
+	 * @param e The exception to handle.
+	 * @return a {@code 503 Service Unavailable} {@link ResponseEntity} with a {@code Retry-After} header.
+	 */
+	@ExceptionHandler
+	public ResponseEntity<ErrorResponse> handleAsyncRequestTimeout(AsyncRequestTimeoutException e) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+				.body(new ErrorResponse(ErrorResponses.OVERLOADED));
+	}
+
+	/**
+	 * Handles a token that was not accepted, e.g. a refresh token that has already been rotated, or an authorization
+	 * token given where a refresh token is expected. The reason is not given to the client.
+	 * @param e The exception to handle.
+	 * @return a {@code 401 Unauthorized} {@link ResponseEntity}.
+	 */
+	@ExceptionHandler
+	public ResponseEntity<ErrorResponse> handleJwtVerification(JWTVerificationException e) {
+		return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
+	}
+
+	/**
+	 * Handles a user that could not be saved because another user already has its username or email, ignoring case.
+	 * This is only reached when both are saved at about the same time, as each endpoint checks for conflicts first.
+	 * @param e The exception to handle.
+	 * @return a {@code 409 Conflict} {@link ResponseEntity} naming the field in use.
+	 */
+	@ExceptionHandler
+	public ResponseEntity<ErrorResponse> handleDuplicateKey(DuplicateKeyException e) {
+		String message = e.getMessage() != null && e.getMessage().contains(User.EMAIL_INDEX) ? ErrorResponses.EMAIL_IN_USE : ErrorResponses.USERNAME_IN_USE;
+		return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(message));
+	}
+
+	/**
+	 * Handles an update of a user that was based on a version of the user that is no longer current.
+	 * @param e The exception to handle.
+	 * @return a {@code 409 Conflict} {@link ResponseEntity}; the client is to fetch the user again and retry.
+	 */
+	@ExceptionHandler
+	public ResponseEntity<ErrorResponse> handleOptimisticLockingFailure(OptimisticLockingFailureException e) {
+		return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.VERSION_CONFLICT));
+	}
+
+	/**
+	 * Handles a signup whose reCAPTCHA could not be verified because the verification endpoint is unavailable.
+	 * @param e The exception to handle.
+	 * @return a {@code 503 Service Unavailable} {@link ResponseEntity} with a {@code Retry-After} header.
+	 */
+	@ExceptionHandler
+	public ResponseEntity<ErrorResponse> handleCaptchaUnavailable(CaptchaUnavailableException e) {
+		// Retry-After is in whole seconds; round up so that clients do not come back while the breaker is still open.
+		long seconds = Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000);
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, Long.toString(seconds))
+				.body(new ErrorResponse(ErrorResponses.CAPTCHA_UNAVAILABLE));
+	}
+
 }
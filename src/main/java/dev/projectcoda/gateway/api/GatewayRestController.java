@@ -6,31 +6,58 @@
 package dev.projectcoda.gateway.api;
 
 import com.auth0.jwt.interfaces.DecodedJWT;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import com.google.common.hash.Hashing;
 import dev.projectcoda.gateway.GatewayApplication;
+import dev.projectcoda.gateway.conf.ExecutorConfiguration;
 import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import dev.projectcoda.gateway.data.FriendCursor;
+import dev.projectcoda.gateway.data.FriendSort;
+import dev.projectcoda.gateway.data.FriendStorage;
 import dev.projectcoda.gateway.data.Rank;
 import dev.projectcoda.gateway.data.User;
+import dev.projectcoda.gateway.data.UserCredentials;
+import dev.projectcoda.gateway.data.UserProfile;
 import dev.projectcoda.gateway.data.UserRepository;
 import dev.projectcoda.gateway.i18n.ErrorResponses;
+import dev.projectcoda.gateway.security.Authenticated;
 import dev.projectcoda.gateway.security.AuthorizationService;
 import dev.projectcoda.gateway.security.CaptchaChecker;
+import dev.projectcoda.gateway.security.GatewayPrincipal;
+import dev.projectcoda.gateway.security.LoginThrottle;
+import dev.projectcoda.gateway.security.PasswordHasher;
+import dev.projectcoda.gateway.security.Permission;
 import dev.projectcoda.gateway.security.Permissions;
+import dev.projectcoda.gateway.security.TokenVerification;
 import dev.projectcoda.gateway.util.GravatarUtils;
 import dev.projectcoda.gateway.util.HttpUtils;
-import dev.projectcoda.gateway.util.SecurityUtils;
-import dev.projectcoda.gateway.util.UserMatchers;
+import lombok.SneakyThrows;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.lang.NonNull;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import javax.validation.constraints.Email;
 import javax.validation.constraints.NotNull;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * The REST API controller for the gateway. All requests should use anonymous access.
@@ -43,70 +70,168 @@ public class GatewayRestController {
 	private final UserRepository repository;
 	private final AuthorizationService authorizationService;
 	private final CaptchaChecker captchaChecker;
+	private final PasswordHasher passwordHasher;
+	private final LoginThrottle loginThrottle;
+	private final UserProfileCache profileCache;
+	private final UserAvailability userAvailability;
+	private final FriendStorage friendStorage;
+	private final ObjectMapper objectMapper;
+	private final ExecutorService verificationExecutor;
+	private final ExecutorService ioExecutor;
 	private final GatewayMetadata metadata;
+	private final JsonWebKeySet jwks;
+	private final String jwksETag;
 
 	/**
 	 * The component constructor for {@link GatewayRestController}.
 	 * @param repository The {@link UserRepository} that contains the users.
+	 * @param captchaChecker The {@link CaptchaChecker} that verifies reCAPTCHAs on signup.
 	 * @param authorizationService The {@link AuthorizationService} to use.
+	 * @param verificationExecutor The executor that verifies tokens of batch requests.
+	 * @param ioExecutor The executor that makes blocking calls for asynchronously handled requests.
+	 * @param passwordHasher The {@link PasswordHasher} to hash and check passwords with.
+	 * @param loginThrottle The {@link LoginThrottle} that counts failed logins.
+	 * @param profileCache The {@link UserProfileCache} that serves user profiles.
+	 * @param objectMapper The {@link ObjectMapper} that serializes cached user profiles.
+	 * @param userAvailability The {@link UserAvailability} that checks whether usernames and emails are taken.
+	 * @param configuration The {@link GatewayConfiguration} to use.
 	 */
-	public GatewayRestController(@Autowired UserRepository repository, @Autowired RestTemplateBuilder builder, @Autowired @NonNull GatewayConfiguration configuration, @Autowired AuthorizationService authorizationService) {
+	public GatewayRestController(@Autowired UserRepository repository, @Autowired CaptchaChecker captchaChecker, @Autowired AuthorizationService authorizationService, @Autowired @Qualifier(ExecutorConfiguration.VERIFICATION_EXECUTOR) ExecutorService verificationExecutor, @Autowired @Qualifier(ExecutorConfiguration.IO_EXECUTOR) ExecutorService ioExecutor, @Autowired PasswordHasher passwordHasher, @Autowired LoginThrottle loginThrottle, @Autowired UserProfileCache profileCache, @Autowired ObjectMapper objectMapper, @Autowired UserAvailability userAvailability, @Autowired GatewayConfiguration configuration) {
 		this.repository = repository;
+		this.profileCache = profileCache;
+		this.objectMapper = objectMapper;
+		this.userAvailability = userAvailability;
+		this.friendStorage = configuration.getFriendStorage();
+		this.passwordHasher = passwordHasher;
+		this.loginThrottle = loginThrottle;
 		this.authorizationService = authorizationService;
-		this.captchaChecker = new CaptchaChecker(builder, configuration);
+		this.verificationExecutor = verificationExecutor;
+		this.ioExecutor = ioExecutor;
+		this.captchaChecker = captchaChecker;
 		this.metadata = new GatewayMetadata(
 				GatewayApplication.VERSION,
-				AuthorizationService.getAlgorithm().getName(),
-				Base64.getEncoder().encodeToString(AuthorizationService.getPublicKey().getEncoded())
+				authorizationService.getAlgorithm().getName(),
+				Base64.getEncoder().encodeToString(authorizationService.getKeyRing().getActivePublicKey().getEncoded())
 		);
+		this.jwks = new JsonWebKeySet(authorizationService.getKeyRing().getPublicKeys().entrySet().stream()
+				.map(e -> JsonWebKey.of(e.getKey(), authorizationService.getAlgorithm().getName(), e.getValue()))
+				.toList());
+		this.jwksETag = Hashing.sha256().hashString(jwks.toString(), StandardCharsets.UTF_8).toString();
 	}
 
 	/**
 	 * Registers a user into the Gateway.
+	 * <p>The reCAPTCHA verification, the username and email uniqueness checks, and the password hashing all run
+	 * at once, and the response is sent as soon as one of them fails. Uniqueness failures are only reported once
+	 * the reCAPTCHA has been verified, so that they cannot be used to probe for accounts without solving it.</p>
 	 * @return a JSON response containing whether the user was
 	 * successfully registered, and a message that is either the user's UUID (if the user
-	 * was successfully logged in) or an error message.
+	 * was successfully logged in) or an error message. If too many passwords are being hashed, or the reCAPTCHA
+	 * cannot be verified and the {@link dev.projectcoda.gateway.security.CaptchaFallback} does not admit the signup,
+	 * a {@code 503 Service Unavailable} response is returned instead.
 	 */
 	@PostMapping("/signup")
-	public ResponseEntity<Response> signup(@Valid @RequestBody UserSignUpRequest request, @RequestParam(name = "g-recaptcha-response") String recaptchaResponse) {
+	public CompletableFuture<ResponseEntity<Response>> signup(@Valid @RequestBody UserSignUpRequest request, @RequestParam(name = "g-recaptcha-response", required = false) String recaptchaResponse) {
 		if(recaptchaResponse == null) {
-			ResponseEntity.badRequest().body(new ErrorResponse(ErrorResponses.PARAMETER_ERROR));
+			return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(new ErrorResponse(ErrorResponses.PARAMETER_ERROR)));
 		}
-		String captchaVerifyMessage = captchaChecker.verifyRecaptcha(recaptchaResponse);
-		if (!captchaVerifyMessage.isEmpty()) {
-			return ResponseEntity.badRequest().body(new ErrorResponse(ErrorResponses.CAPTCHA_ERROR));
+		List<CompletableFuture<?>> steps = new ArrayList<>();
+		CompletableFuture<CaptchaChecker.Verdict> captcha;
+		CompletableFuture<Boolean> usernameInUse;
+		CompletableFuture<Boolean> emailInUse;
+		CompletableFuture<String> password;
+		try {
+			steps.add(captcha = captchaChecker.verify(recaptchaResponse));
+			steps.add(usernameInUse = userAvailability.usernameExists(request.username()));
+			steps.add(emailInUse = userAvailability.emailExists(request.email()));
+			// the costliest step is started last, so that it is not started at all if another one is refused.
+			steps.add(password = passwordHasher.encode(request.password()));
+		} catch(RejectedExecutionException e) {
+			steps.forEach(step -> step.cancel(false));
+			throw e;
 		}
-		if(repository.exists(UserMatchers.usernameExample(request.username()))) return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.USERNAME_IN_USE));
-		if(repository.exists(UserMatchers.emailExample(request.email()))) return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.EMAIL_IN_USE));
-		UUID uuid = UUID.randomUUID();
-		repository.save(
-				User.builder()
-						.username(request.username())
-						.email(request.email())
-						.bio(null)
-						.rating(1200)
-						.uuid(uuid)
-						.rank(Rank.UNRANKED)
-						.permission(Permissions.USER)
-						.password(SecurityUtils.encodeBCrypt(request.password()))
-						.avatar(GravatarUtils.gravatar(request.email()))
-						.build()
-		);
-		return ResponseEntity.ok(new UserSignUpResponse(uuid));
+
+		CompletableFuture<ResponseEntity<Response>> response = new CompletableFuture<>();
+		for(CompletableFuture<?> step : steps) {
+			step.exceptionally(e -> {
+				response.completeExceptionally(e);
+				return null;
+			});
+		}
+		captcha.thenAccept(verdict -> {
+			if(!verdict.passed()) response.complete(ResponseEntity.badRequest().body(new ErrorResponse(ErrorResponses.CAPTCHA_ERROR)));
+		});
+		captcha.thenAcceptBoth(usernameInUse, (verdict, inUse) -> {
+			if(verdict.passed() && inUse) response.complete(ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.USERNAME_IN_USE)));
+		});
+		captcha.thenAcceptBoth(emailInUse, (verdict, inUse) -> {
+			if(verdict.passed() && inUse) response.complete(ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.EMAIL_IN_USE)));
+		});
+		CompletableFuture.allOf(steps.toArray(CompletableFuture[]::new)).thenRunAsync(() -> {
+			if(response.isDone()) return;
+			UUID uuid = UUID.randomUUID();
+			repository.save(
+					User.builder()
+							.username(request.username())
+							.email(request.email())
+							.bio(null)
+							.rating(1200)
+							.uuid(uuid)
+							.rank(Rank.UNRANKED)
+							.permission(Permissions.USER)
+							.password(password.join())
+							.avatar(GravatarUtils.gravatar(request.email()))
+							.unverified(captcha.join().unverified())
+							.build()
+			);
+			response.complete(ResponseEntity.ok(new UserSignUpResponse(uuid)));
+		}, ioExecutor).exceptionally(e -> {
+			response.completeExceptionally(e);
+			return null;
+		});
+		// once failed, skip whatever has not started yet; in particular, a queued password hash.
+		response.whenComplete((r, e) -> steps.forEach(step -> step.cancel(false)));
+		return response;
 	}
 
 	/**
-	 * Logs a user into the Gateway.
+	 * Logs a user into the Gateway. The password is checked on the {@link PasswordHasher}, off the request thread,
+	 * and the refresh token is then issued on the blocking I/O executor, as issuing it writes to the database.
+	 * <p>Usernames and client addresses with too many recent failures are turned away by the {@link LoginThrottle}
+	 * before the user is looked up. Each login counts as a failure until its password is found to be correct, so
+	 * that concurrent logins cannot get past the limits.</p>
 	 * @return a JSON response containing whether the user was
 	 * successfully logged in, and a message that is either the user's UUID (if the user
-	 * was successfully logged in) or an error message.
+	 * was successfully logged in) or an error message. If too many passwords are being checked,
+	 * a {@code 503 Service Unavailable} response is returned instead, and if too many logins have failed,
+	 * a {@code 429 Too Many Requests} response.
 	 */
 	@PostMapping("/login")
-	public ResponseEntity<Response> login(@Valid @RequestBody UserLogInRequest request) {
-		Optional<User> userOptional = repository.findOne(UserMatchers.usernameExample(request.username()));
-		if(userOptional.isPresent()) {
-			User user = userOptional.get();
-			if(SecurityUtils.matchesBCrypt(request.password(), user.getPassword())) {
+	public CompletableFuture<ResponseEntity<Response>> login(@Valid @RequestBody UserLogInRequest request, HttpServletRequest httpRequest) {
+		String address = httpRequest.getRemoteAddr();
+		LoginThrottle.Attempt attempt = loginThrottle.tryAttempt(request.username(), address);
+		if(attempt == null) {
+			long retryAfter = Math.max(1, (loginThrottle.getRetryAfter(request.username(), address).toMillis() + 999) / 1000);
+			return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+					.header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter))
+					.body(new ErrorResponse(ErrorResponses.TOO_MANY_ATTEMPTS)));
+		}
+		Optional<UserCredentials> userOptional;
+		CompletableFuture<Boolean> matches;
+		try {
+			userOptional = repository.findCredentialsByUsername(request.username());
+			// an unknown username stays counted as a failure.
+			if(userOptional.isEmpty()) return CompletableFuture.completedFuture(HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.BAD_CREDENTIALS)));
+			matches = passwordHasher.matches(request.password(), userOptional.get().getPassword());
+		} catch(RuntimeException e) {
+			attempt.release();
+			throw e;
+		}
+		UserCredentials user = userOptional.get();
+		CompletableFuture<ResponseEntity<Response>> response = matches.thenApplyAsync(matched -> {
+			if(matched) {
+				attempt.succeed();
+				passwordHasher.rehashIfOutdated(user, request.password());
 				String refreshToken = authorizationService.issueRefreshToken(user);
 				return ResponseEntity.ok(new UserLogInResponse(
 						user.getUuid(),
@@ -114,27 +239,92 @@ public class GatewayRestController {
 						authorizationService.issueRegularToken(refreshToken)
 				));
 			} else {
+				// the attempt stays counted as a failure.
 				return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.BAD_CREDENTIALS));
 			}
-		} else {
-			return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.BAD_CREDENTIALS));
-		}
+		}, ioExecutor);
+		// if the password could not be checked, or the task was refused by the I/O executor, neither outcome counts.
+		response.whenComplete((r, e) -> {
+			if(e != null) attempt.release();
+		});
+		return response;
 	}
 
+	/**
+	 * Issues a new authorization token from a refresh token. If refresh token rotation is enabled, the given refresh
+	 * token is retired and a new one is returned alongside.
+	 * @param request The refresh token.
+	 * @return a JSON response containing the refresh token to use from now on, and a new authorization token.
+	 */
 	@PostMapping("/refresh")
 	public ResponseEntity<Response> refresh(@Valid @RequestBody RefreshTokenRequest request) {
-		return ResponseEntity.ok(new RefreshTokenResponse(request.refreshToken(), authorizationService.issueRegularToken(request.refreshToken())));
+		String refreshToken = authorizationService.rotateRefreshToken(request.refreshToken());
+		return ResponseEntity.ok(new RefreshTokenResponse(refreshToken, authorizationService.issueRegularToken(refreshToken)));
+	}
+
+	/**
+	 * Revokes a token before it expires. Holding the token is enough to revoke it.
+	 * <p>Revoking a refresh token does not revoke the authorization tokens already issued from it;
+	 * use {@link #revokeUser(String, GatewayPrincipal) POST /gateway/user/{id}/revoke} for that.</p>
+	 * @param request The token to revoke.
+	 * @return a {@code 204 No Content} response if successful, else a {@code 401 Unauthorized} response if the token is not valid.
+	 */
+	@PostMapping("/revoke")
+	public ResponseEntity<Response> revoke(@Valid @RequestBody RevokeTokenRequest request) {
+		if(!authorizationService.revokeToken(request.token())) return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
+		return ResponseEntity.noContent().build();
+	}
+
+	/**
+	 * Revokes every token issued to a user so far, e.g. to log them out everywhere. This can be done by
+	 * the user themselves, or with {@link Permissions#ADMIN} authorization.
+	 * @param id The UUID of the user.
+	 * @param principal The authenticated caller.
+	 * @return a {@code 204 No Content} response if successful, else a {@code 401 Unauthorized} response if the caller may not do this.
+	 */
+	@PostMapping(value = "/user/{id}/revoke", consumes = "*/*")
+	@Authenticated
+	public ResponseEntity<Response> revokeUser(@PathVariable String id, GatewayPrincipal principal) {
+		UUID uuid = UUID.fromString(id);
+		if(!principal.uuid().equals(uuid) && !principal.hasPermission(Permission.ADMIN)) {
+			return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
+		}
+		authorizationService.revokeUser(uuid);
+		return ResponseEntity.noContent().build();
 	}
 
 	/**
-	 * Retrieves a user from the {@link UserRepository}.
+	 * Retrieves a user from the {@link UserProfileCache}, or from the {@link UserRepository} on a miss.
 	 * @param id The UUID of the user.
 	 * @return the user details, else a 404 response if the user does not exist.
 	 */
 	@GetMapping(value = "/user/{id}", consumes = "*/*")
-	public ResponseEntity<Response> getUser(@PathVariable String id) {
-		Optional<User> optionalUser = repository.findById(UUID.fromString(id));
-		return optionalUser.map(GatewayRestController::mapUserSafe).orElseGet(() -> ResponseEntity.notFound().build());
+	public ResponseEntity<byte[]> getUser(@PathVariable String id) {
+		return profileCache.get(UUID.fromString(id), this::loadProfile)
+				.map(json -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json))
+				.orElseGet(() -> ResponseEntity.notFound().build());
+	}
+
+	/**
+	 * Retrieves several users at once, as if each of them were requested from {@link #getUser(String) GET /gateway/user/{id}}.
+	 * Users that are not in the {@link UserProfileCache} are read from the {@link UserRepository} with a single query.
+	 * @param request The UUIDs of the users.
+	 * @return a JSON object containing the details of every user that exists, and the UUIDs of those that do not,
+	 * both in the order they were given. Repeated UUIDs are only listed once. The {@link ResponseEntity} shim
+	 * will always have a status of {@code 200 OK}.
+	 */
+	@PostMapping("/users/lookup")
+	public ResponseEntity<Response> lookupUsers(@Valid @RequestBody UserLookupRequest request) {
+		Set<UUID> uuids = new LinkedHashSet<>(request.users());
+		Map<UUID, byte[]> profiles = profileCache.getAll(uuids, this::loadProfiles);
+		List<RawValue> users = new ArrayList<>(profiles.size());
+		List<UUID> missing = new ArrayList<>();
+		for(UUID uuid : uuids) {
+			byte[] json = profiles.get(uuid);
+			if(json != null) users.add(new RawValue(new String(json, StandardCharsets.UTF_8)));
+			else missing.add(uuid);
+		}
+		return ResponseEntity.ok(new UserLookupResponse(users, missing));
 	}
 
 	/**
@@ -151,12 +341,22 @@ public class GatewayRestController {
 	 */
 	@PostMapping("/valid")
 	public ResponseEntity<Response> valid(@Valid @RequestBody ValidTokenRequest request) {
-		try {
-			DecodedJWT jwt = authorizationService.decodeToken(request.token());
-			return ResponseEntity.ok(new ValidTokenResponse(true, jwt.getClaim("refreshToken").asBoolean() ? "refresh" : "auth", jwt.getClaim("permissions").asList(String.class)));
-		} catch(RuntimeException e) {
-			return ResponseEntity.ok(new ValidTokenResponse(false, null, null));
-		}
+		return ResponseEntity.ok(validate(request.token()));
+	}
+
+	/**
+	 * Validates several tokens at once, as if each of them were sent to {@link #valid(ValidTokenRequest) POST /gateway/valid}.
+	 * The tokens are verified in parallel on a bounded pool.
+	 * @param request The tokens to validate.
+	 * @return a JSON object containing the validation result of each token, in the order they were given. The {@link ResponseEntity} shim
+	 * will always have a status of {@code 200 OK}.
+	 */
+	@PostMapping("/valid/batch")
+	public ResponseEntity<Response> validBatch(@Valid @RequestBody ValidTokenBatchRequest request) {
+		List<CompletableFuture<ValidTokenResponse>> futures = request.tokens().stream()
+				.map(token -> CompletableFuture.supplyAsync(() -> validate(token), verificationExecutor))
+				.toList();
+		return ResponseEntity.ok(new ValidTokenBatchResponse(futures.stream().map(CompletableFuture::join).toList()));
 	}
 
 	/**
@@ -174,86 +374,85 @@ public class GatewayRestController {
 		return ResponseEntity.ok(metadata);
 	}
 
+	/**
+	 * Returns every public key that Gateway-issued tokens can be verified with, as a JSON Web Key Set.
+	 * Tokens name the key that signed them in their {@code kid} header.
+	 * <p>This is cached statically, and carries an {@code ETag} so that downstream services can revalidate
+	 * their copy with {@code If-None-Match}.</p>
+	 * @param request The incoming request.
+	 * @return the JSON Web Key Set, else a {@code 304 Not Modified} response if the client's copy is current.
+	 */
+	@GetMapping(value = "/jwks", consumes = "*/*")
+	public ResponseEntity<Response> jwks(WebRequest request) {
+		if(request.checkNotModified(jwksETag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(jwksETag).build();
+		}
+		return ResponseEntity.ok()
+				.eTag(jwksETag)
+				.cacheControl(CacheControl.maxAge(1, TimeUnit.HOURS).cachePublic())
+				.body(jwks);
+	}
+
 	/**
 	 * Updates the user according to the given user details. This requires
 	 * {@link Permissions#ADMIN} authorization.
 	 * <p>This endpoint is to be executed only by the game server, due to the destructive nature of this operation.</p>
+	 * <p>Only the given fields are set, in a single update, so that changes to other fields made in the meantime
+	 * (such as the user's friends) are kept. The username, UUID and friends in the request are ignored.</p>
+	 * <p>As with {@link #updateUserAsUser(String, UserUpdateRequest)}, the email must be well-formed, and not be
+	 * another user's; unlike there, it may be {@code null} to clear it.</p>
 	 * @param id The UUID of the user.
-	 * @param request The new details of the {@link User}. This does not include its password.
-	 * @return a {@code 204 No Content} response if successful, else a {@code 404 Not Found} response if the user is not found.
+	 * @param request The new details of the {@link User}. This does not include its password. If its {@code version}
+	 *                is set, the update is only made if the user is still at that version.
+	 * @return a {@code 204 No Content} response if successful, else a {@code 404 Not Found} response if the user is not found,
+	 * or a {@code 409 Conflict} response if another user has the email, or the user has changed since the given version.
 	 */
 	@PutMapping("/user/{id}/server")
-	public ResponseEntity<Response> updateUserAsServer(@PathVariable String id, @Valid @RequestBody UserShim request, @RequestHeader HttpHeaders httpHeaders) {
-		Optional<String> bearerOptional = HttpUtils.getBearerToken(httpHeaders);
-		if(bearerOptional.isPresent()) {
-			try {
-				DecodedJWT jwt = authorizationService.decodeToken(bearerOptional.get());
-				if(!jwt.getClaim("permissions").asList(String.class).contains(Permissions.ADMIN)) {
-					// we don't have the appropriate permissions, so we fail.
-					return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
-				}
-			} catch(RuntimeException ignored) {
-				return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
-			}
-		} else {
-			return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
-		}
-		Optional<User> optionalUser = repository.findById(UUID.fromString(id));
-		if(optionalUser.isPresent()) {
-			repository.save(
-					optionalUser.get().toBuilder()
-							.bio(request.bio)
-							.rating(request.rating)
-							.rank(request.rank)
-							.permissions(request.permissions)
-							.uuid(request.uuid)
-							.badges(request.badges)
-							.email(request.email)
-							.avatar(request.avatar)
-							.won(request.won)
-							.totalPlayed(request.totalPlayed)
-							.build()
-			);
-			return ResponseEntity.noContent().build();
-		} else {
-			return ResponseEntity.notFound().build();
+	@Authenticated(permissions = Permissions.ADMIN)
+	public ResponseEntity<Response> updateUserAsServer(@PathVariable String id, @Valid @RequestBody UserShim request) {
+		UUID uuid = UUID.fromString(id);
+		if(request.email != null && repository.existsByNormalizedEmailAndUuidNot(User.normalize(request.email), uuid)) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.EMAIL_IN_USE));
 		}
+		Update update = new Update()
+				.set("bio", request.bio)
+				.set("rating", request.rating)
+				.set("rank", request.rank)
+				.set("permissions", request.permissions)
+				.set("badges", request.badges)
+				.set("email", request.email)
+				.set("avatar", request.avatar)
+				.set("won", request.won)
+				.set("totalPlayed", request.totalPlayed);
+		boolean found = repository.updateFields(uuid, request.version, update);
+		profileCache.invalidate(uuid);
+		return found ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
 	}
 
 	/**
 	 * Updates the user according to the given user details. This requires
 	 * {@link Permissions#USER} authorization, and users can only update certain details.
 	 * <p>This endpoint can and should only be executed by the client itself.</p>
+	 * <p>Only the bio and email are set, in a single update, so that changes to other fields made in the meantime
+	 * (such as the game server's) are kept.</p>
 	 * @param id The UUID of the user.
 	 * @param request The new details of the {@link User}. This does not include its password.
-	 * @return a {@code 204 No Content} response if successful, else a {@code 404 Not Found} response if the user is not found.
+	 * @return a {@code 204 No Content} response if successful, else a {@code 404 Not Found} response if the user is not found,
+	 * or a {@code 409 Conflict} response if another user has the email, or the user has changed since the given version.
 	 */
 	@PutMapping("/user/{id}")
-	public ResponseEntity<Response> updateUserAsUser(@PathVariable String id, @Valid @RequestBody UserUpdateRequest request, @RequestHeader HttpHeaders httpHeaders) {
-		Optional<String> bearerOptional = HttpUtils.getBearerToken(httpHeaders);
-		if(bearerOptional.isPresent()) {
-			try {
-				DecodedJWT jwt = authorizationService.decodeToken(bearerOptional.get()); // we get an exception if it's a bad token.
-				if(!jwt.getSubject().equals(id)) throw new RuntimeException();
-			} catch(RuntimeException ignored) {
-				return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
-			}
-		} else {
-			return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
-		}
-		if(repository.exists(UserMatchers.emailExample(request.email()))) return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.EMAIL_IN_USE));
-		Optional<User> optionalUser = repository.findById(UUID.fromString(id));
-		if(optionalUser.isPresent()) {
-			repository.save(
-					optionalUser.get().toBuilder()
-							.bio(request.bio())
-							.email(request.email())
-							.build()
-			);
-			return ResponseEntity.noContent().build();
-		} else {
-			return ResponseEntity.notFound().build();
+	@Authenticated(subject = "id")
+	public ResponseEntity<Response> updateUserAsUser(@PathVariable String id, @Valid @RequestBody UserUpdateRequest request) {
+		UUID uuid = UUID.fromString(id);
+		if(repository.existsByNormalizedEmailAndUuidNot(User.normalize(request.email()), uuid)) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse(ErrorResponses.EMAIL_IN_USE));
 		}
+		Update update = new Update()
+				.set("bio", request.bio())
+				.set("email", request.email());
+		boolean found = repository.updateFields(uuid, request.version(), update);
+		profileCache.invalidate(uuid);
+		return found ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
 	}
 
 	/**
@@ -261,52 +460,147 @@ public class GatewayRestController {
 	 * {@link Permissions#USER} authorization, and users can add only one friend at a time.
 	 * <p>This endpoint can and should only be executed by the client itself.</p>
 	 * <p>Calling this method when the user is trying to add himself does nothing!</p>
-	 * @param id The UUID of the user.
+	 * @param principal The authenticated user, whose UUID is {@code id}.
 	 * @param request The {@link FriendListModifyRequest}.
-	 * @return a {@code 204 No Content} response if successful, else a {@code 404 Not Found} response if the user or friend is not found.
+	 * @return a {@code 204 No Content} response if successful, else a {@code 404 Not Found} response if the user or
+	 * the added friend is not found.
 	 */
 	@PutMapping("/user/{id}/friends")
-	public ResponseEntity<Response> friendModify(@PathVariable String id, @RequestHeader HttpHeaders httpHeaders, @Valid @RequestBody FriendListModifyRequest request) {
-		Optional<String> bearerOptional = HttpUtils.getBearerToken(httpHeaders);
-		if(bearerOptional.isPresent()) {
-			try {
-				DecodedJWT jwt = authorizationService.decodeToken(bearerOptional.get());
-				if(!jwt.getSubject().equals(id)) throw new RuntimeException();
-			} catch(RuntimeException ignored) {
-				return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
-			}
+	@Authenticated(subject = "id")
+	public ResponseEntity<Response> friendModify(@PathVariable String id, GatewayPrincipal principal, @Valid @RequestBody FriendListModifyRequest request) {
+		return modifyFriends(principal.uuid(), request.add(), Set.of(request.friend()));
+	}
+
+	/**
+	 * Modifies several entries of a user's friend list at once, as if each were sent to
+	 * {@link #friendModify(String, GatewayPrincipal, FriendListModifyRequest) PUT /gateway/user/{id}/friends}.
+	 * With {@link FriendStorage#EMBEDDED} friend lists, the friend list is changed all
+	 * at once, or not at all; with {@link FriendStorage#EDGES}, each friend is added or
+	 * removed separately, so a request that fails may have changed part of the friend list.
+	 * @param principal The authenticated user, whose UUID is {@code id}.
+	 * @param request The {@link FriendListBatchModifyRequest}.
+	 * @return a {@code 204 No Content} response if successful, else a {@code 404 Not Found} response if the user or
+	 * any of the added friends is not found.
+	 */
+	@PutMapping("/user/{id}/friends/batch")
+	@Authenticated(subject = "id")
+	public ResponseEntity<Response> friendModifyBatch(@PathVariable String id, GatewayPrincipal principal, @Valid @RequestBody FriendListBatchModifyRequest request) {
+		return modifyFriends(principal.uuid(), request.add(), request.friends());
+	}
+
+	// utility methods and classes
+
+	/**
+	 * Adds friends to, or removes friends from, a user's friend list with a single atomic update, so that concurrent
+	 * changes to the same list do not overwrite each other. Only added friends have to exist, so that users who
+	 * no longer exist can still be removed.
+	 * @param uuid The UUID of the user.
+	 * @param add Whether to add the friends, rather than remove them.
+	 * @param friends The UUIDs of the friends. The user's own UUID is ignored.
+	 * @return a {@code 204 No Content} response if successful, else a {@code 404 Not Found} response.
+	 */
+	private ResponseEntity<Response> modifyFriends(UUID uuid, boolean add, Set<UUID> friends) {
+		Set<UUID> others = friends.stream().filter(friend -> !friend.equals(uuid)).collect(Collectors.toSet());
+		boolean found;
+		if(others.isEmpty()) {
+			found = repository.existsById(uuid);
+		} else if(add) {
+			found = repository.countByUuidIn(others) == others.size() && repository.addFriends(uuid, others);
 		} else {
-			return HttpUtils.unauthorized(new ErrorResponse(ErrorResponses.UNAUTHORIZED));
+			found = repository.removeFriends(uuid, others);
+		}
+		profileCache.invalidate(uuid);
+		return found ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+	}
+
+	/**
+	 * Validates a single token.
+	 * @param token The token to validate.
+	 * @return a {@link ValidTokenResponse} describing the token.
+	 */
+	private ValidTokenResponse validate(String token) {
+		TokenVerification verification = authorizationService.verifyToken(token);
+		if(!verification.isValid()) return new ValidTokenResponse(false, null, null);
+		DecodedJWT jwt = verification.jwt();
+		return new ValidTokenResponse(true, jwt.getClaim("refreshToken").asBoolean() ? "refresh" : "auth", Permission.names(jwt.getClaim("permissions")));
+	}
+
+	/**
+	 * Pages through the friends of a user, with the profile of each friend, as returned by
+	 * {@link #getUser(String) GET /gateway/user/{id}}. Each page is read from the {@link UserRepository} with a single
+	 * query, and resumes from the cursor of the previous one, so that pages stay consistent while the friend list
+	 * changes and later pages cost no more than the first.
+	 * @param id The UUID of the user.
+	 * @param sort The order of the friends, as the name of a {@link FriendSort}, ignoring case.
+	 * @param after The {@code next} cursor of the previous page, if any. It must have been returned for the same order.
+	 * @param limit The maximum number of friends in the page, at most {@link FriendListResponse#MAX_LIMIT}.
+	 * @return a JSON object containing the friends in the page, and the cursor of the next page, else a 404 response if
+	 * the user does not exist, or a 400 response if the cursor or the limit is not valid.
+	 */
+	@GetMapping(value = "/user/{id}/friends", consumes = "*/*")
+	public ResponseEntity<Response> getFriends(@PathVariable String id, @RequestParam(defaultValue = "id") String sort, @RequestParam(required = false) String after, @RequestParam(defaultValue = "" + FriendListResponse.DEFAULT_LIMIT) int limit) {
+		if(limit < 1 || limit > FriendListResponse.MAX_LIMIT) {
+			return ResponseEntity.badRequest().body(new ErrorResponse(ErrorResponses.PARAMETER_ERROR));
+		}
+		FriendSort order;
+		try {
+			order = FriendSort.valueOf(sort.toUpperCase(Locale.ROOT));
+		} catch(IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(new ErrorResponse(ErrorResponses.PARAMETER_ERROR));
 		}
-		var uuid = UUID.fromString(id);
-		var userO = repository.findById(uuid);
-		if(userO.isPresent() && repository.existsById(request.friend())) {
-			var user = userO.get();
-			if(!user.getUuid().equals(request.friend())) {
-				if(request.add()) {
-					user.getFriends().add(request.friend());
-				} else {
-					user.getFriends().remove(request.friend());
-				}
-				repository.save(user);
+		FriendCursor cursor = null;
+		if(after != null) {
+			try {
+				cursor = FriendCursor.decode(after);
+			} catch(IllegalArgumentException e) {
+				return ResponseEntity.badRequest().body(new ErrorResponse(ErrorResponses.PARAMETER_ERROR));
 			}
-			return ResponseEntity.noContent().build();
-		} else {
-			return ResponseEntity.notFound().build();
+			if(cursor.sort() != order) return ResponseEntity.badRequest().body(new ErrorResponse(ErrorResponses.PARAMETER_ERROR));
 		}
+		return repository.findFriendProfiles(UUID.fromString(id), order, cursor, limit)
+				.map(page -> {
+					String next = page.next() == null ? null : page.next().encode();
+					List<Response> profiles = page.friends().stream().map(this::mapUserSafe).collect(Collectors.toList());
+					return ResponseEntity.ok((Response) new FriendListResponse(profiles, next));
+				})
+				.orElseGet(() -> ResponseEntity.notFound().build());
+	}
 
+	/**
+	 * Reads the profile of a user and serializes it for the {@link UserProfileCache}.
+	 * @param uuid The UUID of the user.
+	 * @return the JSON of the user's {@link UserShim}, if the user exists.
+	 */
+	private Optional<byte[]> loadProfile(UUID uuid) {
+		return repository.findProfileByUuid(uuid).map(this::mapUserSafe).map(this::serialize);
 	}
 
-	// utility methods and classes
+	/**
+	 * Reads the profiles of several users with one query and serializes them for the {@link UserProfileCache}.
+	 * @param uuids The UUIDs of the users.
+	 * @return the JSON of each existing user's {@link UserShim}, by UUID.
+	 */
+	private Map<UUID, byte[]> loadProfiles(Collection<UUID> uuids) {
+		return repository.findProfilesByUuidIn(uuids).stream()
+				.collect(Collectors.toMap(UserProfile::getUuid, user -> serialize(mapUserSafe(user))));
+	}
+
+	@SneakyThrows(JsonProcessingException.class)
+	private byte[] serialize(Object value) {
+		return objectMapper.writeValueAsBytes(value);
+	}
 
 	/**
-	 * Creates a {@link ResponseEntity} of a {@link User}, without exposing its BCrypt password field.
-	 * @param user The user to create a {@link Response} from.
-	 * @return a {@link ResponseEntity} that exposes everything of the user but the password.
+	 * Creates a {@link UserShim} of a {@link User}'s profile, which does not include its BCrypt password field.
+	 * Under {@link FriendStorage#EDGES}, the friends are not part of the profile, only their number.
+	 * @param user The profile to create a {@link UserShim} from.
+	 * @return a {@link UserShim} that exposes everything of the user but the password.
 	 */
 	@SuppressWarnings("unused") // suppress the anonymous class and not this method
-	private static ResponseEntity<Response> mapUserSafe(@NotNull @Valid User user) {
-		return ResponseEntity.ok(new UserShim(
+	private UserShim mapUserSafe(@NotNull UserProfile user) {
+		boolean embedded = friendStorage == FriendStorage.EMBEDDED;
+		Set<UUID> friends = embedded ? Objects.requireNonNullElse(user.getFriends(), Set.of()) : null;
+		return new UserShim(
 				user.getUsername(),
 				user.getUuid(),
 				user.getBio(),
@@ -316,15 +610,17 @@ public class GatewayRestController {
 				user.getPermissions(),
 				user.getEmail(),
 				user.getAvatar(),
-				user.getFriends(),
+				friends,
+				embedded ? friends.size() : user.getFriendCount(),
 				user.getWon(),
-				user.getTotalPlayed()
-		));
+				user.getTotalPlayed(),
+				user.getVersion()
+		);
 	}
 
 	/**
 	 * A shim of {@link User} that hides the password.
-	 * <p>This is for internal use only, in {@link #mapUserSafe(User)}</p>
+	 * <p>This is for internal use only, in {@link #mapUserSafe(UserProfile)}</p>
 	 *
 	 * @param username    The {@code username} parameter.
 	 * @param uuid        The {@code uuid} parameter.
@@ -336,8 +632,10 @@ public class GatewayRestController {
 	 * @param email       The {@code email} parameter.
 	 * @param avatar      The {@code avatar} parameter.
 	 * @param friends     The {@code friends} parameter.
+	 * @param friendCount The {@code friendCount} parameter.
 	 * @param won         The {@code won} parameter.
 	 * @param totalPlayed The {@code totalPlayed} parameter.
+	 * @param version     The {@code version} parameter.
 	 */
 	private record UserShim(
 			String username,
@@ -347,11 +645,13 @@ public class GatewayRestController {
 			int rating,
 			Rank rank,
 			List<String> permissions,
-			String email,
+			@Nullable @Email String email,
 			URL avatar,
 			Set<UUID> friends,
+			long friendCount,
 			long won,
-			long totalPlayed
+			long totalPlayed,
+			Long version
 	) implements Response {}
 
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.EdECPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * An elliptic curve public key in the JSON Web Key format (RFC 7517, RFC 8037).
+ * @param kty The key type. This is {@code EC} for ECDSA keys, and {@code OKP} for EdDSA keys.
+ * @param crv The curve of the key, such as {@code P-521} or {@code Ed25519}.
+ * @param kid The key ID, matching the {@code kid} header of the tokens it verifies.
+ * @param use The intended use of the key. This is always {@code sig}.
+ * @param alg The JWT algorithm the key is used with.
+ * @param x The Base64URL-encoded x coordinate of the key.
+ * @param y The Base64URL-encoded y coordinate of the key. This is {@code null} for EdDSA keys, whose
+ *          {@code x} holds the whole public key instead.
+ * @author Gerard Sayson
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record JsonWebKey(String kty, String crv, String kid, String use, String alg, String x, @Nullable String y) {
+
+	private static final int ED25519_KEY_LENGTH = 32;
+
+	/**
+	 * Creates a {@link JsonWebKey} from an ECDSA or EdDSA public key.
+	 * @param kid The key ID.
+	 * @param alg The JWT algorithm the key is used with.
+	 * @param key The public key.
+	 * @return a {@link JsonWebKey} representing the given key.
+	 * @throws IllegalArgumentException if the key is neither an ECDSA nor an EdDSA key.
+	 */
+	public static JsonWebKey of(@NotBlank String kid, @NotBlank String alg, @NotNull PublicKey key) {
+		if(key instanceof EdECPublicKey edKey) {
+			// the X.509 encoding of an EdDSA key ends with the raw public key.
+			byte[] encoded = edKey.getEncoded();
+			byte[] raw = Arrays.copyOfRange(encoded, encoded.length - ED25519_KEY_LENGTH, encoded.length);
+			return new JsonWebKey("OKP", edKey.getParams().getName(), kid, "sig", alg, Base64.getUrlEncoder().withoutPadding().encodeToString(raw), null);
+		}
+		if(!(key instanceof ECPublicKey ecKey)) {
+			throw new IllegalArgumentException("unsupported key type: " + key.getAlgorithm());
+		}
+		int fieldSize = ecKey.getParams().getCurve().getField().getFieldSize();
+		int length = (fieldSize + 7) / 8;
+		return new JsonWebKey(
+				"EC",
+				"P-" + fieldSize,
+				kid,
+				"sig",
+				alg,
+				encodeCoordinate(ecKey.getW().getAffineX(), length),
+				encodeCoordinate(ecKey.getW().getAffineY(), length)
+		);
+	}
+
+	/**
+	 * Encodes a curve coordinate as a fixed-length, unsigned big-endian Base64URL string.
+	 * @param coordinate The coordinate to encode.
+	 * @param length The byte length of the field.
+	 * @return the encoded coordinate.
+	 */
+	private static String encodeCoordinate(BigInteger coordinate, int length) {
+		byte[] bytes = coordinate.toByteArray();
+		byte[] padded = new byte[length];
+		// toByteArray() may carry a leading sign byte, or be shorter than the field.
+		int copy = Math.min(bytes.length, length);
+		System.arraycopy(bytes, bytes.length - copy, padded, length - copy, copy);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(padded);
+	}
+
+}
@@ -0,0 +1,16 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import java.util.List;
+
+/**
+ * A JSON Web Key Set (RFC 7517) holding every public key that Gateway-issued tokens can be verified with.
+ * @param keys The public keys.
+ * @author Gerard Sayson
+ */
+public record JsonWebKeySet(List<JsonWebKey> keys) implements Response {
+}
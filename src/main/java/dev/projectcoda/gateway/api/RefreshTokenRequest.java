@@ -5,14 +5,14 @@
 
 package dev.projectcoda.gateway.api;
 
-import dev.projectcoda.gateway.data.User;
+import dev.projectcoda.gateway.data.UserCredentials;
 
 import javax.validation.constraints.NotBlank;
 
 /**
  * A request to generate a regular token from a given JWT refresh token.
  * @param refreshToken The refresh token to generate a regular token from.
- * @see dev.projectcoda.gateway.security.AuthorizationService#issueRefreshToken(User)
+ * @see dev.projectcoda.gateway.security.AuthorizationService#issueRefreshToken(UserCredentials)
  * @see dev.projectcoda.gateway.security.AuthorizationService#issueRegularToken(String)
  * @author Gerard Sayson
  */
@@ -10,7 +10,8 @@ import javax.validation.constraints.NotBlank;
 /**
  * A response to {@link RefreshTokenRequest} that contains the refresh token used to generate
  * a new regular token, and that regular token itself.
- * @param refreshToken The refresh token.
+ * @param refreshToken The refresh token. If refresh token rotation is enabled, this is the successor of the requested
+ *                     refresh token, which must be used from now on.
  * @param authToken The regular token.
  * @author Gerard Sayson
  */
@@ -0,0 +1,16 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import javax.validation.constraints.NotBlank;
+
+/**
+ * A request to revoke a token, refresh or authorization, before it expires.
+ * @param token The token to revoke.
+ * @see dev.projectcoda.gateway.security.AuthorizationService#revokeToken(String)
+ * @author Gerard Sayson
+ */
+public record RevokeTokenRequest(@NotBlank String token) {}
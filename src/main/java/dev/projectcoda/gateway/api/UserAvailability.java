@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import dev.projectcoda.gateway.conf.ExecutorConfiguration;
+import dev.projectcoda.gateway.data.User;
+import dev.projectcoda.gateway.data.UserRepository;
+import dev.projectcoda.gateway.util.SingleFlight;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Checks whether usernames and emails are taken, on the {@linkplain ExecutorConfiguration#IO_EXECUTOR I/O executor}.
+ * <p>Concurrent checks of the same {@linkplain User#normalize(String) normalized} username or email are coalesced
+ * through a {@link SingleFlight}, so that a burst of signups for the same name makes one query. A check is only
+ * shared while it is in flight, so this is no staler than checking separately; the unique indexes still turn away
+ * whichever signup loses the race to save.</p>
+ * @author Gerard Sayson
+ */
+@Component
+public class UserAvailability {
+
+	/**
+	 * The name under which checks that shared a concurrent check are counted, tagged by field.
+	 */
+	public static final String METRIC_NAME = "gateway.availability.coalesced";
+
+	private final UserRepository repository;
+	private final ExecutorService ioExecutor;
+	private final SingleFlight<String, Boolean> usernameChecks = new SingleFlight<>();
+	private final SingleFlight<String, Boolean> emailChecks = new SingleFlight<>();
+
+	/**
+	 * The {@link UserAvailability} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param repository The {@link UserRepository} to check.
+	 * @param ioExecutor The executor to run checks on.
+	 * @param registry The {@link MeterRegistry} to publish metrics to.
+	 */
+	public UserAvailability(@Autowired UserRepository repository, @Autowired @Qualifier(ExecutorConfiguration.IO_EXECUTOR) ExecutorService ioExecutor, @Autowired MeterRegistry registry) {
+		this.repository = repository;
+		this.ioExecutor = ioExecutor;
+		counter(registry, "username", usernameChecks);
+		counter(registry, "email", emailChecks);
+	}
+
+	/**
+	 * Checks whether a user has the given username, ignoring case.
+	 * @param username The username to check.
+	 * @return whether the username is taken, once it is known.
+	 * @throws RejectedExecutionException if the I/O executor is saturated.
+	 */
+	public CompletableFuture<Boolean> usernameExists(@NotNull String username) {
+		String normalized = User.normalize(username);
+		return usernameChecks.run(normalized, () -> CompletableFuture.supplyAsync(() -> repository.existsByNormalizedUsername(normalized), ioExecutor));
+	}
+
+	/**
+	 * Checks whether a user has the given email, ignoring case.
+	 * @param email The email to check.
+	 * @return whether the email is taken, once it is known.
+	 * @throws RejectedExecutionException if the I/O executor is saturated.
+	 */
+	public CompletableFuture<Boolean> emailExists(@NotNull String email) {
+		String normalized = User.normalize(email);
+		return emailChecks.run(normalized, () -> CompletableFuture.supplyAsync(() -> repository.existsByNormalizedEmail(normalized), ioExecutor));
+	}
+
+	private static void counter(MeterRegistry registry, String field, SingleFlight<String, Boolean> checks) {
+		FunctionCounter.builder(METRIC_NAME, checks, SingleFlight::getCoalesced)
+				.description("Username and email checks that shared a concurrent check")
+				.tag("field", field)
+				.register(registry);
+	}
+
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A request to look up several users at once.
+ * @param users The UUIDs of the users. At most {@link #MAX_USERS} users can be looked up per request.
+ * @see UserLookupResponse
+ * @author Gerard Sayson
+ */
+public record UserLookupRequest(@NotEmpty @Size(max = MAX_USERS) List<@NotNull UUID> users) {
+
+	/**
+	 * The maximum number of users in a single lookup.
+	 */
+	public static final int MAX_USERS = 100;
+
+}
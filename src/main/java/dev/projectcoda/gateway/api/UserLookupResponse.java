@@ -0,0 +1,21 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A response to a {@link UserLookupRequest}.
+ * @param users The profile of each user that exists, as returned by {@code GET /gateway/user/{id}}, in the order of
+ * the request. Profiles are embedded as they are cached, without being serialized again.
+ * @param missing The UUIDs of the users that do not exist, in the order of the request.
+ * @author Gerard Sayson
+ */
+public record UserLookupResponse(List<RawValue> users, List<UUID> missing) implements Response {
+}
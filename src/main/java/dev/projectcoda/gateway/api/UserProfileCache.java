@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import dev.projectcoda.gateway.util.SingleFlight;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of user profiles, as the JSON bytes sent by {@code GET /gateway/user/{id}} and
+ * {@code POST /gateway/users/lookup}, so that a hit skips both the database and Jackson.
+ * <p>Profiles are invalidated by every endpoint of this node that changes them. Changes made through other Gateway
+ * nodes are picked up once the entry expires, after {@link GatewayConfiguration#getProfileCacheTtl()} seconds.
+ * Users that do not exist are not cached.</p>
+ * <p>Concurrent misses for the same user are coalesced through a {@link SingleFlight}, so that a burst of lookups
+ * for a user that is not cached yet makes one query and serializes one profile.</p>
+ * <p>A load that races with an invalidation of the same user is not left in the cache. Invalidations are stamped per
+ * user, in a fixed number of stripes, so that they do not discard the loads of most other users.</p>
+ * @author Gerard Sayson
+ */
+@Component
+public class UserProfileCache {
+
+	/**
+	 * The name under which cache metrics are published.
+	 */
+	public static final String METRIC_NAME = "gateway.profile.cache";
+
+	/**
+	 * The name under which misses that shared the load of a concurrent miss are counted.
+	 */
+	public static final String COALESCED_METRIC_NAME = "gateway.profile.cache.coalesced";
+
+	// a power of two; users on the same stripe discard each other's racing loads, which only costs a later miss.
+	private static final int INVALIDATION_STRIPES = 4096;
+
+	private final Cache<UUID, byte[]> cache;
+	private final SingleFlight<UUID, Optional<byte[]>> loads = new SingleFlight<>();
+
+	// bumped by every invalidation of a user on the stripe, so that a load racing with one is not left in the cache.
+	private final AtomicLongArray invalidations = new AtomicLongArray(INVALIDATION_STRIPES);
+
+	/**
+	 * The {@link UserProfileCache} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @param registry The {@link MeterRegistry} to publish cache metrics to.
+	 */
+	public UserProfileCache(@Autowired GatewayConfiguration configuration, @Autowired MeterRegistry registry) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(configuration.getProfileCacheSize())
+				.expireAfterWrite(Duration.ofSeconds(configuration.getProfileCacheTtl()))
+				.recordStats()
+				.build();
+		GuavaCacheMetrics.monitor(registry, cache, METRIC_NAME);
+		Gauge.builder(METRIC_NAME + ".hit.ratio", cache, c -> c.stats().hitRate())
+				.description("Share of profile lookups served from the cache")
+				.register(registry);
+		FunctionCounter.builder(COALESCED_METRIC_NAME, loads, SingleFlight::getCoalesced)
+				.description("Profile cache misses that shared the load of a concurrent miss")
+				.register(registry);
+	}
+
+	/**
+	 * Returns the cached profile of a user, loading it with the given function on a miss.
+	 * @param uuid The UUID of the user.
+	 * @param loader The function that reads and serializes the profile, or returns nothing if the user does not exist.
+	 * @return the serialized profile, if the user exists.
+	 */
+	public Optional<byte[]> get(@NotNull UUID uuid, @NotNull Function<UUID, Optional<byte[]>> loader) {
+		byte[] json = cache.getIfPresent(uuid);
+		if(json != null) return Optional.of(json);
+		return loads.get(uuid, () -> load(uuid, loader));
+	}
+
+	private Optional<byte[]> load(UUID uuid, Function<UUID, Optional<byte[]>> loader) {
+		long stamp = invalidations.get(stripe(uuid));
+		Optional<byte[]> loaded = loader.apply(uuid);
+		if(loaded.isPresent()) {
+			cache.put(uuid, loaded.get());
+			// the profile may have been read before an invalidation that has already run; drop it rather than serve it.
+			if(invalidations.get(stripe(uuid)) != stamp) cache.invalidate(uuid);
+		}
+		return loaded;
+	}
+
+	/**
+	 * Returns the cached profiles of several users, loading every miss at once with the given function.
+	 * <p>Batches are not coalesced with concurrent lookups, as they seldom cover the same users.</p>
+	 * @param uuids The UUIDs of the users.
+	 * @param loader The function that reads and serializes the profiles of the users that are not cached, leaving
+	 * out those that do not exist.
+	 * @return the serialized profiles of the users that exist, by UUID.
+	 */
+	public Map<UUID, byte[]> getAll(@NotNull Collection<UUID> uuids, @NotNull Function<Collection<UUID>, Map<UUID, byte[]>> loader) {
+		Map<UUID, byte[]> found = new HashMap<>(cache.getAllPresent(uuids));
+		List<UUID> misses = uuids.stream().filter(uuid -> !found.containsKey(uuid)).toList();
+		if(misses.isEmpty()) return found;
+		Map<UUID, Long> stamps = new HashMap<>();
+		for(UUID uuid : misses) stamps.put(uuid, invalidations.get(stripe(uuid)));
+		Map<UUID, byte[]> loaded = loader.apply(misses);
+		cache.putAll(loaded);
+		for(UUID uuid : loaded.keySet()) {
+			Long stamp = stamps.get(uuid);
+			if(stamp == null || invalidations.get(stripe(uuid)) != stamp) cache.invalidate(uuid);
+		}
+		found.putAll(loaded);
+		return found;
+	}
+
+	/**
+	 * Removes the profile of a user, once it has changed.
+	 * @param uuid The UUID of the user.
+	 */
+	public void invalidate(@NotNull UUID uuid) {
+		invalidations.incrementAndGet(stripe(uuid));
+		// a load in flight may have read the old profile; later lookups must not join it.
+		loads.forget(uuid);
+		cache.invalidate(uuid);
+	}
+
+	private static int stripe(UUID uuid) {
+		// random UUIDs are uniform in their low bits.
+		return (int) uuid.getLeastSignificantBits() & (INVALIDATION_STRIPES - 1);
+	}
+
+}
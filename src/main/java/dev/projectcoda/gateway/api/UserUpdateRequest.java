@@ -14,6 +14,8 @@ import javax.validation.constraints.NotNull;
  * @author Gerard Sayson
  * @param bio The bio of the user.
  * @param email The new email of the user.
+ * @param version The version of the user that the change is based on, as returned by {@code GET /gateway/user/{id}}.
+ *                If set, the change is rejected if the user has changed since.
  */
-public record UserUpdateRequest(@Nullable String bio, @NotNull @Email String email) {
+public record UserUpdateRequest(@Nullable String bio, @NotNull @Email String email, @Nullable Long version) {
 }
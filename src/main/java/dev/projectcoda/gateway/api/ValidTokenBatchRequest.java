@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * A request to validate several tokens at once, such as the tokens of every player in a lobby.
+ * @param tokens The tokens to validate. At most {@link #MAX_TOKENS} tokens can be validated per request.
+ * @see ValidTokenRequest
+ * @author Gerard Sayson
+ */
+public record ValidTokenBatchRequest(@NotNull @Size(max = MAX_TOKENS) List<String> tokens) {
+
+	/**
+	 * The maximum number of tokens in a single batch.
+	 */
+	public static final int MAX_TOKENS = 64;
+
+}
@@ -0,0 +1,16 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import java.util.List;
+
+/**
+ * A response to a {@link ValidTokenBatchRequest}.
+ * @param results The validation result of each token, in the order of the request.
+ * @author Gerard Sayson
+ */
+public record ValidTokenBatchResponse(List<ValidTokenResponse> results) implements Response {
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.conf;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Declares the dedicated, bounded thread pools used by Gateway for CPU-heavy and blocking work, so that
+ * it does not run unbounded on request threads.
+ * @author Gerard Sayson
+ */
+@Configuration
+public class ExecutorConfiguration {
+
+	/**
+	 * The name of the {@link #verificationExecutor(GatewayConfiguration) token verification executor} bean.
+	 */
+	public static final String VERIFICATION_EXECUTOR = "verificationExecutor";
+
+	/**
+	 * The name of the {@link #hashingExecutor(GatewayConfiguration, MeterRegistry) password hashing executor} bean.
+	 */
+	public static final String HASHING_EXECUTOR = "hashingExecutor";
+
+	/**
+	 * The name under which the metrics of the password hashing executor are published.
+	 */
+	public static final String HASHING_METRIC_NAME = "gateway.hashing";
+
+	/**
+	 * The name of the {@link #ioExecutor(GatewayConfiguration, MeterRegistry) blocking I/O executor} bean.
+	 */
+	public static final String IO_EXECUTOR = "ioExecutor";
+
+	/**
+	 * The name under which the metrics of the blocking I/O executor are published.
+	 */
+	public static final String IO_METRIC_NAME = "gateway.io";
+
+	/**
+	 * Creates the executor that verifies JWT tokens in parallel. It has
+	 * {@link GatewayConfiguration#getVerificationThreads()} threads; once its queue is full, the submitting
+	 * thread verifies the token itself.
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @return the token verification executor.
+	 */
+	@Bean(name = VERIFICATION_EXECUTOR, destroyMethod = "shutdown")
+	public ExecutorService verificationExecutor(@Autowired GatewayConfiguration configuration) {
+		int threads = configuration.getVerificationThreads();
+		return new ThreadPoolExecutor(
+				threads, threads,
+				0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(threads * 64),
+				new ThreadFactoryBuilder().setNameFormat("gateway-verify-%d").setDaemon(true).build(),
+				new ThreadPoolExecutor.CallerRunsPolicy()
+		);
+	}
+
+	/**
+	 * Creates the executor that hashes and checks passwords, so that BCrypt never runs on request threads. It has
+	 * {@link GatewayConfiguration#getHashingThreads()} threads; once {@link GatewayConfiguration#getHashingQueueSize()}
+	 * jobs are waiting, further jobs are rejected with a {@link java.util.concurrent.RejectedExecutionException}.
+	 * <p>Its queue depth and thread usage are published under {@link #HASHING_METRIC_NAME}.</p>
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @param registry The {@link MeterRegistry} to publish metrics to.
+	 * @return the password hashing executor.
+	 */
+	@Bean(name = HASHING_EXECUTOR, destroyMethod = "shutdown")
+	public ExecutorService hashingExecutor(@Autowired GatewayConfiguration configuration, @Autowired MeterRegistry registry) {
+		int threads = configuration.getHashingThreads();
+		int queueSize = configuration.getHashingQueueSize();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				threads, threads,
+				0L, TimeUnit.MILLISECONDS,
+				queueSize == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueSize),
+				new ThreadFactoryBuilder().setNameFormat("gateway-hash-%d").setDaemon(true).build(),
+				new ThreadPoolExecutor.AbortPolicy()
+		);
+		new ExecutorServiceMetrics(executor, HASHING_METRIC_NAME, Tags.empty()).bindTo(registry);
+		return executor;
+	}
+
+	/**
+	 * Creates the executor that makes blocking calls, such as database queries and reCAPTCHA verifications, on behalf
+	 * of requests that are handled asynchronously. It has {@link GatewayConfiguration#getIoThreads()} threads; once
+	 * its queue is full, further calls are rejected with a {@link java.util.concurrent.RejectedExecutionException}.
+	 * <p>Its queue depth and thread usage are published under {@link #IO_METRIC_NAME}.</p>
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @param registry The {@link MeterRegistry} to publish metrics to.
+	 * @return the blocking I/O executor.
+	 */
+	@Bean(name = IO_EXECUTOR, destroyMethod = "shutdown")
+	public ExecutorService ioExecutor(@Autowired GatewayConfiguration configuration, @Autowired MeterRegistry registry) {
+		int threads = configuration.getIoThreads();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				threads, threads,
+				0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(threads * 64),
+				new ThreadFactoryBuilder().setNameFormat("gateway-io-%d").setDaemon(true).build(),
+				new ThreadPoolExecutor.AbortPolicy()
+		);
+		new ExecutorServiceMetrics(executor, IO_METRIC_NAME, Tags.empty()).bindTo(registry);
+		return executor;
+	}
+
+}
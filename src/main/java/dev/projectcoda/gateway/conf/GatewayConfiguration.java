@@ -5,12 +5,19 @@
 
 package dev.projectcoda.gateway.conf;
 
+import dev.projectcoda.gateway.data.FriendStorage;
+import dev.projectcoda.gateway.security.CaptchaFallback;
+import dev.projectcoda.gateway.security.SigningAlgorithm;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
 
 /**
  * The external configuration class for Coda. Spring will scan for the following properties
@@ -58,4 +65,238 @@ public class GatewayConfiguration {
 	@NotBlank
 	private String recaptchaSecret;
 
+	/**
+	 * The URL of the reCAPTCHA verification endpoint. This is only to be changed to point Gateway at a stub.
+	 */
+	@NotBlank
+	private String recaptchaVerifyUrl = "https://www.google.com/recaptcha/api/siteverify";
+
+	/**
+	 * The time to wait for a connection to the reCAPTCHA verification endpoint, in milliseconds.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int recaptchaConnectTimeout = 2000;
+
+	/**
+	 * The time to wait for the reCAPTCHA verification endpoint to respond, in milliseconds.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int recaptchaReadTimeout = 5000;
+
+	/**
+	 * The maximum number of pooled connections to the reCAPTCHA verification endpoint.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int recaptchaMaxConnections = 20;
+
+	/**
+	 * The time from which a reCAPTCHA verification counts towards opening the circuit breaker, even if it succeeds,
+	 * in milliseconds. This must be above zero.
+	 */
+	@Positive
+	private int recaptchaSlowCallThreshold = 1000;
+
+	/**
+	 * The percentage of slow or failed reCAPTCHA verifications at which the circuit breaker opens.
+	 * This must be between 1 and 100.
+	 */
+	@Min(1)
+	@Max(100)
+	private int recaptchaFailureRateThreshold = 50;
+
+	/**
+	 * The number of most recent reCAPTCHA verifications that the circuit breaker judges the endpoint by.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int recaptchaBreakerWindow = 20;
+
+	/**
+	 * The time the circuit breaker stays open before letting a probe verification through, in seconds.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int recaptchaBreakerOpenDuration = 30;
+
+	/**
+	 * What to do with signups while the reCAPTCHA verification endpoint is unavailable.
+	 */
+	@NotNull
+	private CaptchaFallback recaptchaFallback = CaptchaFallback.REJECT;
+
+	/**
+	 * The longest a signup waits for the circuit breaker under {@link CaptchaFallback#QUEUE}, in seconds. It is
+	 * shortened if the last verification, after waiting this long, could not complete within {@link #asyncRequestTimeout}.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int recaptchaQueueTimeout = 30;
+
+	/**
+	 * The maximum number of verified tokens kept in memory to skip repeated signature verification.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int tokenCacheSize = 10000;
+
+	/**
+	 * The maximum number of user profiles kept in memory to answer {@code GET /gateway/user/{id}}.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int profileCacheSize = 10000;
+
+	/**
+	 * The time a cached user profile is served for, in seconds. This bounds how long changes made through other
+	 * Gateway nodes take to show. This must be above zero.
+	 */
+	@Positive
+	private int profileCacheTtl = 30;
+
+	/**
+	 * Where the friend lists of users are stored. Every Gateway node must use the same storage.
+	 */
+	@NotNull
+	private FriendStorage friendStorage = FriendStorage.EMBEDDED;
+
+	/**
+	 * The algorithm used to sign and verify tokens. Changing it invalidates every token in circulation.
+	 */
+	@NotNull
+	private SigningAlgorithm algorithm = SigningAlgorithm.ES512;
+
+	/**
+	 * Whether issued tokens carry their permissions as a compact bit mask instead of a list of names.
+	 * This shrinks tokens, but services that read the {@code permissions} claim themselves must understand
+	 * {@link dev.projectcoda.gateway.security.Permission} masks, and unknown permissions are dropped.
+	 */
+	private boolean compactPermissions = false;
+
+	/**
+	 * The path of the PKCS#12 keystore holding the key pairs used to sign and verify tokens,
+	 * where every alias is a key ID. If this is not set, an ephemeral key pair is generated on startup.
+	 */
+	private String keystorePath;
+
+	/**
+	 * The password of the keystore at {@link #keystorePath}, and of the keys inside it.
+	 */
+	private String keystorePassword;
+
+	/**
+	 * The key ID (keystore alias) of the key pair used to sign new tokens. This may be omitted
+	 * if the keystore holds exactly one key pair.
+	 */
+	private String signingKeyId;
+
+	/**
+	 * Whether {@code /gateway/refresh} rotates refresh tokens: each refresh issues a new refresh token and retires
+	 * the old one, and reusing a retired refresh token invalidates every refresh token descending from the same login.
+	 */
+	private boolean refreshRotation = false;
+
+	/**
+	 * How often revocations made by other Gateway nodes are picked up, in seconds.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int revocationPollInterval = 10;
+
+	/**
+	 * The number of revocations the in-memory revocation filter is sized for. More revocations
+	 * than this still work, but make checking tokens slightly slower.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int revocationFilterSize = 100000;
+
+	/**
+	 * The number of threads used to verify tokens of batch requests in parallel.
+	 * This must be above zero, and defaults to the number of available processors.
+	 */
+	@Positive
+	private int verificationThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The number of threads used to hash and check passwords with BCrypt.
+	 * This must be above zero, and defaults to the number of available processors.
+	 */
+	@Positive
+	private int hashingThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The number of password hashing jobs that may wait for a hashing thread. Once this many are waiting,
+	 * logins and signups are answered with {@code 503 Service Unavailable} until the backlog drains.
+	 * This must not be negative.
+	 */
+	@PositiveOrZero
+	private int hashingQueueSize = 64;
+
+	/**
+	 * The number of threads making blocking calls, such as database queries and reCAPTCHA verifications,
+	 * on behalf of requests that are handled asynchronously.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int ioThreads = 32;
+
+	/**
+	 * The longest a request that is handled asynchronously, such as a login or signup, may take before it is answered
+	 * with {@code 503 Service Unavailable}, in seconds. {@link #recaptchaQueueTimeout} is shortened to fit within it.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int asyncRequestTimeout = 60;
+
+	/**
+	 * The BCrypt cost factor that new password hashes are made with. Each increment doubles the time taken to
+	 * hash and check a password. When {@link #bcryptTargetMillis calibration} is enabled, this is the minimum cost.
+	 * This must be between 4 and 31, and defaults to 10.
+	 */
+	@Min(4)
+	@Max(31)
+	private int bcryptCost = 10;
+
+	/**
+	 * If above zero, the highest BCrypt cost whose hash takes at most this many milliseconds on this host is
+	 * picked at startup, though never below {@link #bcryptCost}. Passwords hashed with a lower cost are rehashed
+	 * on their next successful login.
+	 * This must not be negative, and defaults to zero (no calibration).
+	 */
+	@PositiveOrZero
+	private int bcryptTargetMillis = 0;
+
+	/**
+	 * The number of failed logins for a single username, within {@link #loginFailureWindow}, after which further
+	 * logins for that username are rejected without checking the credentials.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int loginFailureLimit = 10;
+
+	/**
+	 * The number of failed logins from a single client address, within {@link #loginFailureWindow}, after which
+	 * further logins from that address are rejected without checking the credentials.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int loginFailureAddressLimit = 50;
+
+	/**
+	 * The length of the sliding window over which failed logins are counted, in seconds.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int loginFailureWindow = 300;
+
+	/**
+	 * The maximum number of usernames and client addresses whose failed logins are tracked at once.
+	 * This must be above zero.
+	 */
+	@Positive
+	private int loginThrottleSize = 100000;
+
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.conf;
+
+import dev.projectcoda.gateway.security.AuthenticationInterceptor;
+import dev.projectcoda.gateway.security.GatewayPrincipalResolver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.lang.NonNull;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Coda Gateway Spring MVC configuration. This registers request-scoped authentication
+ * for {@linkplain dev.projectcoda.gateway.security.Authenticated authenticated} handlers, and sets the timeout of
+ * asynchronously handled requests from {@link GatewayConfiguration#getAsyncRequestTimeout()} rather than leaving it
+ * to the servlet container.
+ * @author Gerard Sayson
+ */
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+
+	private final AuthenticationInterceptor authenticationInterceptor;
+	private final Duration asyncRequestTimeout;
+
+	public WebConfiguration(@Autowired AuthenticationInterceptor authenticationInterceptor, @Autowired GatewayConfiguration configuration) {
+		this.authenticationInterceptor = authenticationInterceptor;
+		this.asyncRequestTimeout = Duration.ofSeconds(configuration.getAsyncRequestTimeout());
+	}
+
+	@Override
+	public void addInterceptors(@NonNull InterceptorRegistry registry) {
+		registry.addInterceptor(authenticationInterceptor);
+	}
+
+	@Override
+	public void addArgumentResolvers(@NonNull List<HandlerMethodArgumentResolver> resolvers) {
+		resolvers.add(new GatewayPrincipalResolver());
+	}
+
+	@Override
+	public void configureAsyncSupport(@NonNull AsyncSupportConfigurer configurer) {
+		configurer.setDefaultTimeout(asyncRequestTimeout.toMillis());
+	}
+
+}
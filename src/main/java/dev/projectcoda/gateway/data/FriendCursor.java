@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * The position after the last friend of a page, from which the next page resumes. Clients only ever see it
+ * {@linkplain #encode() encoded}, as an opaque string.
+ * @param sort The order of the pages.
+ * @param key The {@linkplain FriendSort#getField() sort key} of the last friend, or {@code null} for {@link FriendSort#ID},
+ *            or if the last friend has none, e.g. because they no longer exist.
+ * @param uuid The UUID of the last friend.
+ * @author Gerard Sayson
+ */
+public record FriendCursor(@NotNull FriendSort sort, @Nullable Object key, @NotNull UUID uuid) {
+
+	private static final char SEPARATOR = '\n';
+	// keys are written after a prefix, so that no key can be mistaken for a missing one.
+	private static final char KEY = '=';
+	private static final String NO_KEY = "-";
+
+	/**
+	 * Creates the cursor after the given friend.
+	 * @param sort The order of the pages.
+	 * @param friend The last friend of a page.
+	 * @return the cursor after the friend.
+	 */
+	public static FriendCursor after(@NotNull FriendSort sort, @NotNull UserProfile friend) {
+		return new FriendCursor(sort, sort.keyOf(friend), friend.getUuid());
+	}
+
+	/**
+	 * @return this cursor, as a URL-safe string.
+	 */
+	public String encode() {
+		String cursor = sort.name() + SEPARATOR + (key == null ? NO_KEY : KEY + String.valueOf(key)) + SEPARATOR + uuid;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads a cursor written by {@link #encode()}.
+	 * @param cursor The encoded cursor.
+	 * @return the cursor.
+	 * @throws IllegalArgumentException if the cursor is malformed.
+	 */
+	public static FriendCursor decode(@NotNull String cursor) {
+		String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		// the key is in the middle, as usernames are not checked for separators.
+		int first = decoded.indexOf(SEPARATOR);
+		int last = decoded.lastIndexOf(SEPARATOR);
+		if(first < 0 || first == last) throw new IllegalArgumentException("Malformed cursor");
+		FriendSort sort = FriendSort.valueOf(decoded.substring(0, first));
+		String key = decoded.substring(first + 1, last);
+		if(!key.equals(NO_KEY) && (key.isEmpty() || key.charAt(0) != KEY)) throw new IllegalArgumentException("Malformed cursor");
+		return new FriendCursor(sort, key.equals(NO_KEY) ? null : sort.parseKey(key.substring(1)), UUID.fromString(decoded.substring(last + 1)));
+	}
+
+}
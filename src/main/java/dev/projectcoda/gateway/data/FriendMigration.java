@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the friend lists of users into the configured {@link FriendStorage}:
+ * <ul>
+ *     <li>Under {@link FriendStorage#EDGES}, the unique index {@link Friendship#INDEX} and the indexes paging through
+ *     friends and copying their sort keys are created, and the embedded
+ *     friends of each user are added as {@link Friendship}s, counted in their {@linkplain User#getFriendCount() friend
+ *     count}, and then removed from the user. Once nothing is left to move, the sort keys of friends are copied to
+ *     the friendships that lack them, and the friend counts that do not match the friendships, such as those of users
+ *     whose friend list changes failed halfway, are counted again.</li>
+ *     <li>Under {@link FriendStorage#EMBEDDED}, the friendships of each user are added to their embedded friends,
+ *     and then deleted, together with their friend count.</li>
+ * </ul>
+ * <p>Friends are added through {@link UserRepository#addFriends(UUID, java.util.Collection)}, which skips those
+ * already there, so a migration that is interrupted can simply run again.</p>
+ * <p>The migration runs every minute until a run finds nothing to move, so that friends added by nodes that were
+ * still using the other storage while the storage was switched are moved as well. If the database is unreachable,
+ * it is retried a minute later.</p>
+ * @author Gerard Sayson
+ */
+@Slf4j
+@Component
+public class FriendMigration {
+
+	private static final int RECOUNT_BATCH = 500;
+
+	private final MongoTemplate mongoTemplate;
+	private final UserRepository repository;
+	private final FriendStorage friendStorage;
+
+	private volatile boolean migrated;
+
+	/**
+	 * The {@link FriendMigration} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param mongoTemplate The {@link MongoTemplate} used to find friend lists and create indexes.
+	 * @param repository The {@link UserRepository} used to move friend lists.
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 */
+	public FriendMigration(@Autowired MongoTemplate mongoTemplate, @Autowired UserRepository repository, @Autowired GatewayConfiguration configuration) {
+		this.mongoTemplate = mongoTemplate;
+		this.repository = repository;
+		this.friendStorage = configuration.getFriendStorage();
+	}
+
+	/**
+	 * Runs the migration, unless a run has already found nothing to move.
+	 */
+	@Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+	public void migrate() {
+		if(migrated) return;
+		try {
+			long moved;
+			if(friendStorage == FriendStorage.EDGES) {
+				mongoTemplate.indexOps(Friendship.class).ensureIndex(new Index()
+						.on("user", Sort.Direction.ASC)
+						.on("friend", Sort.Direction.ASC)
+						.named(Friendship.INDEX)
+						.unique());
+				mongoTemplate.indexOps(Friendship.class).ensureIndex(new Index()
+						.on("user", Sort.Direction.ASC)
+						.on("rating", Sort.Direction.DESC)
+						.on("friend", Sort.Direction.ASC)
+						.named(Friendship.RATING_INDEX));
+				mongoTemplate.indexOps(Friendship.class).ensureIndex(new Index()
+						.on("user", Sort.Direction.ASC)
+						.on("normalizedUsername", Sort.Direction.ASC)
+						.on("friend", Sort.Direction.ASC)
+						.named(Friendship.USERNAME_INDEX));
+				mongoTemplate.indexOps(Friendship.class).ensureIndex(new Index("friend", Sort.Direction.ASC).named(Friendship.FRIEND_INDEX));
+				moved = toFriendships();
+			} else {
+				moved = toEmbedded();
+			}
+			if(moved > 0) {
+				log.info("Moved the friends of {} users to {} storage", moved, friendStorage);
+				return;
+			}
+			if(friendStorage == FriendStorage.EDGES) {
+				long copied = copySortKeys();
+				if(copied > 0) log.info("Copied the sort keys of {} friends to their friendships", copied);
+				long recounted = recountFriends();
+				if(recounted > 0) log.info("Counted the friends of {} users again", recounted);
+			}
+			migrated = true;
+		} catch(DataAccessException e) {
+			log.warn("Could not migrate friend lists, retrying in a minute", e);
+		}
+	}
+
+	/**
+	 * Moves embedded friends to friendships, one user at a time.
+	 * @return the number of users whose friends were moved.
+	 */
+	private long toFriendships() {
+		Query query = new Query(Criteria.where("friends.0").exists(true));
+		query.fields().include("friends");
+		long moved = 0;
+		try(CloseableIterator<Document> users = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(User.class))) {
+			while(users.hasNext()) {
+				Document user = users.next();
+				UUID uuid = user.get("_id", UUID.class);
+				List<UUID> friends = user.getList("friends", UUID.class);
+				repository.addFriends(uuid, friends);
+				// only what was moved is removed; friends embedded in the meantime are moved by the next run.
+				mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(uuid)), new Update().pullAll("friends", friends.toArray()), User.class);
+				moved++;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Copies the sort keys of every friend to the friendships that do not have them yet, such as those added before
+	 * sort keys were copied.
+	 * @return the number of friends whose sort keys were copied.
+	 */
+	private long copySortKeys() {
+		Aggregation uncopied = Aggregation.newAggregation(
+				Aggregation.match(Criteria.where("friendVersion").exists(false)),
+				Aggregation.group("friend")
+		);
+		long copied = 0;
+		try(CloseableIterator<Document> friend = mongoTemplate.aggregateStream(uncopied, mongoTemplate.getCollectionName(Friendship.class), Document.class)) {
+			while(friend.hasNext()) {
+				if(repository.copySortKeys(friend.next().get("_id", UUID.class))) copied++;
+			}
+		}
+		return copied;
+	}
+
+	/**
+	 * Counts the friends of every user whose friend count does not match their friendships: first those with
+	 * friendships, then those with a friend count but none left.
+	 * @return the number of users whose friends were counted again.
+	 */
+	private long recountFriends() {
+		String users = mongoTemplate.getCollectionName(User.class);
+		Aggregation mismatched = Aggregation.newAggregation(
+				Aggregation.group("user").count().as("count"),
+				Aggregation.lookup(users, "_id", "_id", "user"),
+				Aggregation.unwind("user"),
+				context -> new Document("$match", new Document("$expr", new Document("$ne", List.of("$count", "$user.friendCount")))),
+				Aggregation.project("_id")
+		);
+		long recounted = 0;
+		try(CloseableIterator<Document> user = mongoTemplate.aggregateStream(mismatched, mongoTemplate.getCollectionName(Friendship.class), Document.class)) {
+			while(user.hasNext()) {
+				if(repository.countFriends(user.next().get("_id", UUID.class))) recounted++;
+			}
+		}
+		Query counted = Query.query(Criteria.where("friendCount").gt(0));
+		counted.fields().include("_id");
+		try(CloseableIterator<Document> user = mongoTemplate.stream(counted, Document.class, users)) {
+			List<UUID> batch = new ArrayList<>(RECOUNT_BATCH);
+			while(user.hasNext()) {
+				batch.add(user.next().get("_id", UUID.class));
+				if(batch.size() == RECOUNT_BATCH || !user.hasNext()) {
+					List<UUID> withFriends = mongoTemplate.findDistinct(Query.query(Criteria.where("user").in(batch)), "user", Friendship.class, UUID.class);
+					batch.removeAll(withFriends);
+					for(UUID uuid : batch) {
+						if(repository.countFriends(uuid)) recounted++;
+					}
+					batch.clear();
+				}
+			}
+		}
+		return recounted;
+	}
+
+	/**
+	 * Moves friendships to embedded friends, one user at a time.
+	 * @return the number of users whose friends were moved.
+	 */
+	private long toEmbedded() {
+		Aggregation byUser = Aggregation.newAggregation(Aggregation.group("user").push("friend").as("friends"));
+		long moved = 0;
+		try(CloseableIterator<Document> users = mongoTemplate.aggregateStream(byUser, mongoTemplate.getCollectionName(Friendship.class), Document.class)) {
+			while(users.hasNext()) {
+				Document user = users.next();
+				UUID uuid = user.get("_id", UUID.class);
+				List<UUID> friends = user.getList("friends", UUID.class);
+				repository.addFriends(uuid, friends);
+				mongoTemplate.remove(Query.query(Criteria.where("user").is(uuid).and("friend").in(friends)), Friendship.class);
+				Update uncounted = new Update().unset("friendCount").unset(UserRepositoryCustomImpl.FRIEND_COUNT_STAMP);
+				mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(uuid)), uncounted, mongoTemplate.getCollectionName(User.class));
+				moved++;
+			}
+		}
+		return moved;
+	}
+
+}
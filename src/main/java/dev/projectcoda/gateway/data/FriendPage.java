@@ -0,0 +1,20 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+/**
+ * A page of the profiles of a user's friends.
+ * @param friends The profiles of the friends in the page, in order. Friends whose users no longer exist are skipped,
+ * so there may be fewer than were asked for even if there is a next page.
+ * @param next The position from which the next page resumes, or {@code null} if this is the last page.
+ * @author Gerard Sayson
+ */
+public record FriendPage(@NotNull List<UserProfile> friends, @Nullable FriendCursor next) {
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import lombok.Getter;
+import org.springframework.data.domain.Sort;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+/**
+ * The orders in which the friends of a user can be paged through. Friends with the same sort key are ordered by UUID,
+ * so that every order is total and a page can resume exactly where the previous one ended.
+ * <ul>
+ *     <li><b>{@link #ID}</b> - By UUID. This is the default.</li>
+ *     <li><b>{@link #RATING}</b> - By rating, highest first.</li>
+ *     <li><b>{@link #USERNAME}</b> - By username, ignoring case.</li>
+ * </ul>
+ * @author Gerard Sayson
+ */
+public enum FriendSort {
+
+	ID(null, Sort.Direction.ASC),
+	RATING("rating", Sort.Direction.DESC),
+	USERNAME("normalizedUsername", Sort.Direction.ASC);
+
+	/**
+	 * The field sorted by before the UUID, or {@code null} if only the UUID is.
+	 */
+	@Getter private final String field;
+
+	/**
+	 * The direction {@link #getField() the field} is sorted in. UUIDs are always sorted in ascending order.
+	 */
+	@Getter private final Sort.Direction direction;
+
+	FriendSort(String field, Sort.Direction direction) {
+		this.field = field;
+		this.direction = direction;
+	}
+
+	/**
+	 * @return the {@link Sort} of this order.
+	 */
+	public Sort toSort() {
+		return toSort("_id");
+	}
+
+	/**
+	 * @param uuidField The field holding the UUID of the friend.
+	 * @return the {@link Sort} of this order, on documents that hold the friend's UUID in the given field.
+	 */
+	Sort toSort(@NotNull String uuidField) {
+		Sort byUuid = Sort.by(Sort.Direction.ASC, uuidField);
+		return field == null ? byUuid : Sort.by(direction, field).and(byUuid);
+	}
+
+	/**
+	 * Returns the sort key of a friend, as stored in the database.
+	 * @param friend The profile of the friend.
+	 * @return the value of {@link #getField() the field}, or {@code null} if only the UUID is sorted by.
+	 */
+	@Nullable
+	Object keyOf(@NotNull UserProfile friend) {
+		return switch(this) {
+			case ID -> null;
+			case RATING -> friend.getRating();
+			case USERNAME -> User.normalize(friend.getUsername());
+		};
+	}
+
+	/**
+	 * Parses a sort key written by {@link String#valueOf(Object)}.
+	 * @param key The written sort key.
+	 * @return the sort key.
+	 * @throws IllegalArgumentException if the key is not one of this order.
+	 */
+	@Nullable
+	Object parseKey(@NotNull String key) {
+		return switch(this) {
+			case ID -> null;
+			case RATING -> Integer.parseInt(key);
+			case USERNAME -> key;
+		};
+	}
+
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+/**
+ * Where the friend lists of users are stored. The storage is chosen through
+ * {@link dev.projectcoda.gateway.conf.GatewayConfiguration#getFriendStorage()}, and {@link FriendMigration} moves
+ * existing friend lists over when it changes.
+ * <ul>
+ *     <li><b>{@link #EMBEDDED}</b> - In the {@linkplain User#getFriends() friends} of each user. Every read of a
+ *     user's profile carries their whole friend list. This is the default.</li>
+ *     <li><b>{@link #EDGES}</b> - As one {@link Friendship} per friend, in a collection of their own. Users only
+ *     keep their {@linkplain User#getFriendCount() friend count}, so that their profiles stay the same size however
+ *     many friends they have.</li>
+ * </ul>
+ * @author Gerard Sayson
+ */
+public enum FriendStorage {
+
+	EMBEDDED,
+	EDGES
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import javax.validation.constraints.NotNull;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * An entry of a user's friend list, under {@link FriendStorage#EDGES}. Friendships are one-sided, like friend lists:
+ * a user befriending another does not put the user in the other's friend list.
+ * <p>There is at most one friendship per user and friend, which {@link #INDEX} enforces.</p>
+ * <p>Each friendship carries a copy of the friend's sort keys, so that a page of friends in any {@link FriendSort}
+ * is found through {@link #RATING_INDEX} or {@link #USERNAME_INDEX} before the friends themselves are read. The copy
+ * is taken when the friend is added, and taken again whenever the friend's rating changes.</p>
+ * @author Gerard Sayson
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+@Document("friendships")
+public final class Friendship {
+
+	/**
+	 * The name of the unique index on {@link #getUser() users} and their {@link #getFriend() friends}, which also
+	 * serves paging through a user's friends by UUID.
+	 */
+	public static final String INDEX = "user_friend_unique";
+
+	/**
+	 * The name of the index serving {@link FriendSort#RATING}.
+	 */
+	public static final String RATING_INDEX = "user_rating_friend";
+
+	/**
+	 * The name of the index serving {@link FriendSort#USERNAME}.
+	 */
+	public static final String USERNAME_INDEX = "user_normalizedUsername_friend";
+
+	/**
+	 * The name of the index on {@link #getFriend() friends}, through which changed sort keys are copied to the
+	 * friendships of the friend.
+	 */
+	public static final String FRIEND_INDEX = "friend";
+
+	/**
+	 * The ID of the friendship, generated by the database.
+	 */
+	@Id
+	private String id;
+
+	/**
+	 * The UUID of the user whose friend list this is an entry of.
+	 */
+	@NotNull
+	private UUID user;
+
+	/**
+	 * The UUID of the friend.
+	 */
+	@NotNull
+	private UUID friend;
+
+	/**
+	 * When the friend was added. For friends moved over from {@link FriendStorage#EMBEDDED}, this is when they were
+	 * moved, as it was not recorded before.
+	 */
+	@NotNull
+	private Instant createdAt;
+
+	/**
+	 * The friend's {@linkplain User#getRating() rating}, as of {@link #getFriendVersion() the friend's version}.
+	 */
+	private Integer rating;
+
+	/**
+	 * The friend's {@linkplain User#normalize(String) normalized} username.
+	 */
+	private String normalizedUsername;
+
+	/**
+	 * The {@linkplain User#getVersion() version} of the friend the sort keys were copied at, so that an older copy
+	 * never replaces a newer one. It is missing from friendships whose sort keys have not been copied yet.
+	 */
+	private Long friendVersion;
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A refresh token family: the chain of refresh tokens descending from a single login, of which only the
+ * latest (the <em>head</em>) may be used. Every refresh token of the family carries the family's ID in its
+ * {@code fam} claim.
+ * <p>Families are deleted once invalidated, and expire together with the refresh tokens they cover.</p>
+ * @author Gerard Sayson
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+@Document("refreshFamilies")
+public final class RefreshFamily {
+
+	/**
+	 * The ID of the family, as found in the {@code fam} claim.
+	 */
+	@Id
+	@NotBlank
+	private String id;
+
+	/**
+	 * The UUID of the user the family belongs to.
+	 */
+	@NotNull
+	private UUID user;
+
+	/**
+	 * The token ID ({@code jti}) of the only refresh token of the family that may still be used.
+	 */
+	@NotBlank
+	private String head;
+
+	/**
+	 * When every refresh token of the family has expired.
+	 */
+	@NotNull
+	private Instant expiresAt;
+
+}
@@ -0,0 +1,16 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * The {@link RefreshFamily} repository.
+ * @author Gerard Sayson
+ */
+@Repository
+public interface RefreshFamilyRepository extends MongoRepository<RefreshFamily, String> {}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.time.Instant;
+
+/**
+ * A revocation of Gateway tokens. It either revokes a single token by its token ID ({@code jti}),
+ * or every token of a user that was issued before {@link #revokedAt}.
+ * <p>Revocations are removed by a TTL index on {@link #expiresAt} once no token they apply to can still be valid.</p>
+ * @author Gerard Sayson
+ * @see dev.projectcoda.gateway.security.RevocationList
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+@Document("revocations")
+public final class Revocation {
+
+	/**
+	 * The prefix of the {@link #id} of revocations of a single token, followed by its token ID.
+	 */
+	public static final String TOKEN_PREFIX = "jti:";
+
+	/**
+	 * The prefix of the {@link #id} of revocations of every token of a user, followed by the user's UUID.
+	 */
+	public static final String USER_PREFIX = "user:";
+
+	/**
+	 * What is revoked: either {@link #TOKEN_PREFIX} followed by a token ID, or {@link #USER_PREFIX} followed by a UUID.
+	 */
+	@Id
+	@NotBlank
+	private String id;
+
+	/**
+	 * When the revocation was made, truncated to whole seconds. For user revocations, every token
+	 * issued before this instant is revoked.
+	 */
+	@NotNull
+	private Instant revokedAt;
+
+	/**
+	 * When the revocation can be forgotten, as every token it applies to has expired by then.
+	 */
+	@NotNull
+	private Instant expiresAt;
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The Coda token revocation repository.
+ * @author Gerard Sayson
+ */
+@Repository
+public interface RevocationRepository extends MongoRepository<Revocation, String> {
+
+	/**
+	 * Finds every revocation that is still in effect.
+	 * @param now The current instant.
+	 * @return the revocations that expire after the given instant.
+	 */
+	List<Revocation> findByExpiresAtAfter(Instant now);
+
+	/**
+	 * Finds every revocation made since the given instant, inclusive.
+	 * @param since The instant to search from.
+	 * @return the revocations made since the given instant.
+	 */
+	List<Revocation> findByRevokedAtGreaterThanEqual(Instant since);
+
+}
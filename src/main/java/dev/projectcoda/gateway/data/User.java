@@ -7,6 +7,7 @@ package dev.projectcoda.gateway.data;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotBlank;
@@ -25,6 +26,7 @@ import java.util.*;
  *     <li>A matchmaking rating</li>
  *     <li>A matchmaking rank</li>
  *     <li>(not exposed) A BCrypt-encoded password</li>
+ *     <li>(not exposed) Whether the user signed up without a verified reCAPTCHA</li>
  *     <li>A URL pointing to an image, which will be used as the avatar.</li>
  * </ul>
  * <p>All fields in this class are not null unless specified otherwise.</p>
@@ -37,6 +39,16 @@ import java.util.*;
 @Builder(toBuilder = true)
 public final class User {
 
+	/**
+	 * The name of the unique index on {@link #getNormalizedUsername() normalized usernames}.
+	 */
+	public static final String USERNAME_INDEX = "normalizedUsername_unique";
+
+	/**
+	 * The name of the unique index on {@link #getNormalizedEmail() normalized emails}.
+	 */
+	public static final String EMAIL_INDEX = "normalizedEmail_unique";
+
 	/**
 	 * The username of the user. This field cannot be blank.
 	 */
@@ -103,11 +115,30 @@ public final class User {
 	private String email;
 
 	/**
-	 * The password of the user, encoded using {@link dev.projectcoda.gateway.util.SecurityUtils#encodeBCrypt(String) SecurityUtils.encodeBCrypt(String)}.
+	 * The {@linkplain #normalize(String) normalized} username, which is looked up and kept unique instead of the
+	 * username so that case-insensitive lookups can use an index. This is set whenever the user is saved.
+	 */
+	private String normalizedUsername;
+
+	/**
+	 * The {@linkplain #normalize(String) normalized} email, which is looked up and kept unique instead of the
+	 * email so that case-insensitive lookups can use an index. This is set whenever the user is saved.
+	 */
+	private String normalizedEmail;
+
+	/**
+	 * The password of the user, encoded using {@link dev.projectcoda.gateway.security.PasswordHasher#encode(String) PasswordHasher.encode(String)}.
 	 */
 	@NotNull
 	private String password;
 
+	/**
+	 * Whether the user signed up while the reCAPTCHA could not be verified, under
+	 * {@link dev.projectcoda.gateway.security.CaptchaFallback#ADMIT CaptchaFallback.ADMIT}.
+	 * Such users may be bots, and are to be reviewed.
+	 */
+	private boolean unverified;
+
 	/**
 	 * The avatar of the user. This can be obtained through {@link dev.projectcoda.gateway.util.GravatarUtils#gravatar(String)}.
 	 */
@@ -123,6 +154,12 @@ public final class User {
 	@Builder.Default
 	private Set<UUID> friends = new HashSet<>();
 
+	/**
+	 * The number of friends of a user, which is only kept under {@link FriendStorage#EDGES}, where the friends
+	 * themselves are not part of the user.
+	 */
+	private long friendCount;
+
 	/**
 	 * The number of <em>online</em> games a player has won.
 	 */
@@ -135,4 +172,31 @@ public final class User {
 	@Builder.Default
 	private long totalPlayed = 0L;
 
+	/**
+	 * The version of the user, which is incremented by every update of their details. Updates may name the version
+	 * they were based on, and are rejected if the user has changed since. This is {@code null} for users that have
+	 * not been updated since versions were introduced.
+	 */
+	@Version
+	private Long version;
+
+	/**
+	 * Normalizes a username or email for case-insensitive lookups.
+	 * @param value The username or email.
+	 * @return the value in lower case.
+	 */
+	public static String normalize(@NotNull String value) {
+		return value.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return a copy of this user whose normalized fields match its username and email.
+	 */
+	User normalized() {
+		return toBuilder()
+				.normalizedUsername(username == null ? null : normalize(username))
+				.normalizedEmail(email == null ? null : normalize(email))
+				.build();
+	}
+
 }
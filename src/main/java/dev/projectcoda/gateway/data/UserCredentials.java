@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A projection of a {@link User} with only what is needed to log them in: their UUID, password and permissions.
+ * @author Gerard Sayson
+ */
+public interface UserCredentials {
+
+	/**
+	 * @return the UUID of the user.
+	 * @see User#getUuid()
+	 */
+	UUID getUuid();
+
+	/**
+	 * @return the encoded password of the user.
+	 * @see User#getPassword()
+	 */
+	String getPassword();
+
+	/**
+	 * @return the permissions of the user.
+	 * @see User#getPermissions()
+	 */
+	List<String> getPermissions();
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings the {@link User} collection up to date on startup:
+ * <ol>
+ *     <li>Users saved before usernames and emails were normalized get their
+ *     {@linkplain User#getNormalizedUsername() normalized username} and {@linkplain User#getNormalizedEmail() email}.</li>
+ *     <li>The unique indexes {@link User#USERNAME_INDEX} and {@link User#EMAIL_INDEX} are created on them, so that
+ *     the database rejects a second user with the same username or email regardless of case.</li>
+ * </ol>
+ * <p>The indexes are sparse, so that users inserted by older Gateway nodes during a rolling upgrade, which lack
+ * the normalized fields, do not collide with each other. Until they are backfilled, such users cannot log in, so the
+ * migration runs every minute until a run finds no user to normalize.</p>
+ * <p>If the database is unreachable, or existing users share a username or email that differs only in case, the
+ * migration is retried a minute later. Such duplicates have to be resolved by hand.</p>
+ * @author Gerard Sayson
+ */
+@Slf4j
+@Component
+public class UserMigration {
+
+	private static final int BATCH_SIZE = 500;
+
+	private final MongoTemplate mongoTemplate;
+
+	private volatile boolean indexed;
+	private volatile boolean migrated;
+
+	/**
+	 * The {@link UserMigration} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param mongoTemplate The {@link MongoTemplate} used to update users and create indexes.
+	 */
+	public UserMigration(@Autowired MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	/**
+	 * Runs the migration, unless a run has already found no user to normalize.
+	 */
+	@Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+	public void migrate() {
+		if(migrated) return;
+		try {
+			long backfilled = backfill();
+			if(!indexed) {
+				mongoTemplate.indexOps(User.class).ensureIndex(new Index("normalizedUsername", Sort.Direction.ASC).named(User.USERNAME_INDEX).unique().sparse());
+				mongoTemplate.indexOps(User.class).ensureIndex(new Index("normalizedEmail", Sort.Direction.ASC).named(User.EMAIL_INDEX).unique().sparse());
+				indexed = true;
+				log.info("Normalized {} users and ensured unique username and email indexes", backfilled);
+			} else if(backfilled > 0) {
+				log.info("Normalized {} users inserted by older Gateway nodes", backfilled);
+			}
+			migrated = backfilled == 0;
+		} catch(DuplicateKeyException e) {
+			log.error("Some users share a username or email that differs only in case; resolve them to enforce uniqueness", e);
+		} catch(DataAccessException e) {
+			log.warn("Could not migrate users, retrying in a minute", e);
+		}
+	}
+
+	/**
+	 * Sets the normalized fields of users that lack them, in unordered batches.
+	 * @return the number of users updated.
+	 */
+	private long backfill() {
+		Query query = new Query(new Criteria().orOperator(
+				Criteria.where("normalizedUsername").exists(false),
+				Criteria.where("normalizedEmail").exists(false)
+		));
+		query.fields().include("username", "email");
+		long updated = 0;
+		BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+		int pending = 0;
+		try(CloseableIterator<Document> users = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(User.class))) {
+			while(users.hasNext()) {
+				Document user = users.next();
+				Update update = new Update();
+				String username = user.getString("username");
+				String email = user.getString("email");
+				if(username != null) update.set("normalizedUsername", User.normalize(username));
+				if(email != null) update.set("normalizedEmail", User.normalize(email));
+				if(update.getUpdateObject().isEmpty()) continue;
+				bulk.updateOne(Query.query(Criteria.where("_id").is(user.get("_id"))), update);
+				if(++pending == BATCH_SIZE) {
+					updated += bulk.execute().getModifiedCount();
+					bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+					pending = 0;
+				}
+			}
+		}
+		if(pending > 0) updated += bulk.execute().getModifiedCount();
+		return updated;
+	}
+
+}
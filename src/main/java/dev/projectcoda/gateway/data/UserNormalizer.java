@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertCallback;
+import org.springframework.stereotype.Component;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Sets the {@linkplain User#getNormalizedUsername() normalized username} and
+ * {@linkplain User#getNormalizedEmail() normalized email} of every {@link User} before it is saved,
+ * so that they cannot drift from the username and email.
+ * @author Gerard Sayson
+ */
+@Component
+public class UserNormalizer implements BeforeConvertCallback<User> {
+
+	@NotNull
+	@Override
+	public User onBeforeConvert(@NotNull User user, @NotNull String collection) {
+		return user.normalized();
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A projection of a {@link User} with everything that may be shown about them, i.e. without their password.
+ * The getters mirror those of {@link User}.
+ * @author Gerard Sayson
+ */
+public interface UserProfile {
+
+	String getUsername();
+
+	UUID getUuid();
+
+	String getBio();
+
+	Set<String> getBadges();
+
+	int getRating();
+
+	Rank getRank();
+
+	List<String> getPermissions();
+
+	String getEmail();
+
+	URL getAvatar();
+
+	Set<UUID> getFriends();
+
+	long getFriendCount();
+
+	long getWon();
+
+	long getTotalPlayed();
+
+	Long getVersion();
+
+}
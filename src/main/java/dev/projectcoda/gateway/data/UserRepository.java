@@ -8,11 +8,80 @@ package dev.projectcoda.gateway.data;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import javax.validation.constraints.NotNull;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 /**
  * The Coda user repository.
+ * <p>Usernames and emails are looked up case-insensitively through their {@linkplain User#normalize(String)
+ * normalized} copies, which are indexed, so these lookups never scan the collection. Existence checks are counts
+ * limited to one match, which the indexes answer without reading any user, and lookups that need only part of a user
+ * return a {@link UserCredentials} or {@link UserProfile} projection, so that only those fields are sent over.</p>
  * @author Gerard Sayson
  */
 @Repository
-public interface UserRepository extends MongoRepository<User, UUID> {}
+public interface UserRepository extends MongoRepository<User, UUID>, UserRepositoryCustom {
+
+	/**
+	 * Checks whether a user has the given normalized username.
+	 * @param normalizedUsername The {@linkplain User#normalize(String) normalized} username.
+	 * @return whether a user has the username.
+	 */
+	boolean existsByNormalizedUsername(String normalizedUsername);
+
+	/**
+	 * Checks whether a user has the given normalized email.
+	 * @param normalizedEmail The {@linkplain User#normalize(String) normalized} email.
+	 * @return whether a user has the email.
+	 */
+	boolean existsByNormalizedEmail(String normalizedEmail);
+
+	/**
+	 * Checks whether a user other than the given one has the given normalized email.
+	 * @param normalizedEmail The {@linkplain User#normalize(String) normalized} email.
+	 * @param uuid The UUID of the user to ignore.
+	 * @return whether another user has the email.
+	 */
+	boolean existsByNormalizedEmailAndUuidNot(String normalizedEmail, UUID uuid);
+
+	/**
+	 * Counts how many of the given UUIDs belong to users.
+	 * @param uuids The UUIDs to look up.
+	 * @return the number of users with one of the UUIDs.
+	 */
+	long countByUuidIn(Collection<UUID> uuids);
+
+	/**
+	 * Finds the credentials of the user with the given normalized username, without loading the rest of the user.
+	 * @param normalizedUsername The {@linkplain User#normalize(String) normalized} username.
+	 * @return the user's credentials, if any.
+	 */
+	Optional<UserCredentials> findCredentialsByNormalizedUsername(String normalizedUsername);
+
+	/**
+	 * Finds the profile of a user, without loading their password.
+	 * @param uuid The UUID of the user.
+	 * @return the user's profile, if any.
+	 */
+	Optional<UserProfile> findProfileByUuid(UUID uuid);
+
+	/**
+	 * Finds the profiles of several users with one query, without loading their passwords.
+	 * @param uuids The UUIDs of the users.
+	 * @return the profiles of those users that exist, in no particular order.
+	 */
+	List<UserProfile> findProfilesByUuidIn(Collection<UUID> uuids);
+
+	/**
+	 * Finds the credentials of a user by username, ignoring case.
+	 * @param username The username to look up.
+	 * @return the user's credentials, if any.
+	 */
+	default Optional<UserCredentials> findCredentialsByUsername(@NotNull String username) {
+		return findCredentialsByNormalizedUsername(User.normalize(username));
+	}
+
+}
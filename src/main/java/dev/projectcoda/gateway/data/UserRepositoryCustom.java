@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.query.Update;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Operations of {@link UserRepository} that Spring Data cannot derive: updates of parts of a {@link User} in place,
+ * as single atomic updates instead of saving the whole document, and paging through the friends of a user.
+ * @author Gerard Sayson
+ */
+public interface UserRepositoryCustom {
+
+	/**
+	 * Adds friends to a user's friend list. Friends already in the list are left as they are.
+	 * <p>Under {@link FriendStorage#EMBEDDED}, this is a single atomic update. Under {@link FriendStorage#EDGES},
+	 * each friend is added separately, so if this fails, some of the friends may have been added; the user's
+	 * friend count is then {@linkplain #countFriends(UUID) counted} again either way.</p>
+	 * @param uuid The UUID of the user.
+	 * @param friends The UUIDs of the friends to add.
+	 * @return whether the user exists.
+	 */
+	boolean addFriends(@NotNull UUID uuid, @NotNull Collection<UUID> friends);
+
+	/**
+	 * Removes friends from a user's friend list. Friends not in the list are ignored.
+	 * <p>As with {@link #addFriends(UUID, Collection)}, under {@link FriendStorage#EDGES}, some of the friends may
+	 * have been removed if this fails.</p>
+	 * @param uuid The UUID of the user.
+	 * @param friends The UUIDs of the friends to remove.
+	 * @return whether the user exists.
+	 */
+	boolean removeFriends(@NotNull UUID uuid, @NotNull Collection<UUID> friends);
+
+	/**
+	 * Sets the {@linkplain User#getFriendCount() friend count} of a user to the number of its {@link Friendship}s.
+	 * The count is only written if no other count was written since before counting, and is taken again otherwise,
+	 * a few times at most, so that concurrent changes to the friend list cannot leave an older count behind. The
+	 * user's {@linkplain User#getVersion() version} is left as it is. This is only meaningful under
+	 * {@link FriendStorage#EDGES}.
+	 * @param uuid The UUID of the user.
+	 * @return whether the user exists.
+	 */
+	boolean countFriends(@NotNull UUID uuid);
+
+	/**
+	 * Sets fields of a user with a single update, without reading the user first, and increments its
+	 * {@linkplain User#getVersion() version}. If the email is set, so is the normalized email, which is removed if the email is set to {@code null}. Under
+	 * {@link FriendStorage#EDGES}, if the rating is set, it is then {@linkplain #copySortKeys(UUID) copied} to the
+	 * friendships that have the user as their friend.
+	 * @param uuid The UUID of the user.
+	 * @param version The version the change was based on, or {@code null} to change the user whatever its version.
+	 * @param update The fields to set.
+	 * @return whether the user exists.
+	 * @throws OptimisticLockingFailureException if the user exists, but is no longer at the given version.
+	 */
+	boolean updateFields(@NotNull UUID uuid, @Nullable Long version, @NotNull Update update);
+
+	/**
+	 * Finds a page of the profiles of a user's friends with a single query, once the user's friend list is read or,
+	 * under {@link FriendStorage#EDGES}, the user is known to exist. Under {@link FriendStorage#EDGES}, the page is
+	 * found by the sort keys {@linkplain Friendship copied to the friendships}, and only its friends are read.
+	 * @param uuid The UUID of the user.
+	 * @param sort The order of the pages.
+	 * @param after The position after the last friend of the previous page, or {@code null} for the first page.
+	 * It must be of the same order.
+	 * @param limit The maximum number of friends in the page.
+	 * @return the page, or nothing if the user does not exist.
+	 */
+	Optional<FriendPage> findFriendProfiles(@NotNull UUID uuid, @NotNull FriendSort sort, @Nullable FriendCursor after, int limit);
+
+	/**
+	 * Copies the sort keys of a user to the {@link Friendship}s that have the user as their friend, unless they
+	 * already hold the keys of the user's current version. This is only meaningful under {@link FriendStorage#EDGES}.
+	 * @param friend The UUID of the user.
+	 * @return whether the user exists.
+	 */
+	boolean copySortKeys(@NotNull UUID friend);
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The implementation of {@link UserRepositoryCustom}, which Spring Data mixes into {@link UserRepository}.
+ * @author Gerard Sayson
+ */
+@Slf4j
+class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+	/**
+	 * The field of a user that is incremented by every written friend count, so that counts are written in turn
+	 * without touching the user's {@linkplain User#getVersion() version}.
+	 */
+	static final String FRIEND_COUNT_STAMP = "friendCountStamp";
+	// how many times a count is taken before giving up to the count that was written in the meantime.
+	private static final int COUNT_ATTEMPTS = 5;
+	private static final int DUPLICATE_KEY = 11000;
+	// the fields of a UserProfile, which is all but the password, the normalized fields and the flags.
+	private static final String[] PROFILE_FIELDS = {
+			"username", "bio", "badges", "rating", "rank", "permissions", "email", "avatar", "friends", "friendCount",
+			"won", "totalPlayed", "version"
+	};
+	// the fields of a user that are copied to the friendships that have the user as their friend.
+	private static final String[] SORT_KEY_FIELDS = {"username", "rating", "version"};
+
+	private final MongoTemplate mongoTemplate;
+	private final FriendStorage friendStorage;
+	private final ProjectionFactory projectionFactory = new SpelAwareProxyProjectionFactory();
+
+	/**
+	 * The {@link UserRepositoryCustomImpl} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param mongoTemplate The {@link MongoTemplate} used to update users.
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 */
+	UserRepositoryCustomImpl(@Autowired MongoTemplate mongoTemplate, @Autowired GatewayConfiguration configuration) {
+		this.mongoTemplate = mongoTemplate;
+		this.friendStorage = configuration.getFriendStorage();
+	}
+
+	@Override
+	public boolean addFriends(@NotNull UUID uuid, @NotNull Collection<UUID> friends) {
+		if(friendStorage == FriendStorage.EMBEDDED) return update(uuid, new Update().addToSet("friends").each(friends.toArray()));
+		if(!exists(uuid)) return false;
+		try {
+			insertFriendships(uuid, friends);
+		} finally {
+			// some friendships may have been added even if others failed.
+			countFriends(uuid);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean removeFriends(@NotNull UUID uuid, @NotNull Collection<UUID> friends) {
+		if(friendStorage == FriendStorage.EMBEDDED) return update(uuid, new Update().pullAll("friends", friends.toArray()));
+		if(!exists(uuid)) return false;
+		try {
+			mongoTemplate.remove(Query.query(Criteria.where("user").is(uuid).and("friend").in(friends)), Friendship.class);
+		} finally {
+			countFriends(uuid);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean countFriends(@NotNull UUID uuid) {
+		Query user = Query.query(Criteria.where("_id").is(uuid));
+		user.fields().include(FRIEND_COUNT_STAMP);
+		for(int attempt = 0; attempt < COUNT_ATTEMPTS; attempt++) {
+			Document current = mongoTemplate.findOne(user, Document.class, mongoTemplate.getCollectionName(User.class));
+			if(current == null) return false;
+			long count = mongoTemplate.count(Query.query(Criteria.where("user").is(uuid)), Friendship.class);
+			// counted after the stamp was read, so if no other count was written since, this one is the latest.
+			Query unchanged = Query.query(Criteria.where("_id").is(uuid).and(FRIEND_COUNT_STAMP).is(current.get(FRIEND_COUNT_STAMP)));
+			Update update = new Update().set("friendCount", count).inc(FRIEND_COUNT_STAMP, 1);
+			// by collection name, as an update of the User entity would increment its version too.
+			if(mongoTemplate.updateFirst(unchanged, update, mongoTemplate.getCollectionName(User.class)).getMatchedCount() == 1) return true;
+		}
+		// the count written in the meantime may be off, until the next change to the friend list or startup counts again.
+		log.warn("Gave up counting the friends of {} after {} attempts", uuid, COUNT_ATTEMPTS);
+		return true;
+	}
+
+	@Override
+	public boolean updateFields(@NotNull UUID uuid, @Nullable Long version, @NotNull Update update) {
+		Query query = Query.query(Criteria.where("_id").is(uuid));
+		if(version != null) query.addCriteria(Criteria.where("version").is(version));
+		Document set = update.getUpdateObject().get("$set", Document.class);
+		if(set != null && set.containsKey("email")) {
+			// a cleared email must not leave its normalized email behind, as the unique index would still hold it.
+			if(set.get("email") instanceof String email) update.set("normalizedEmail", User.normalize(email));
+			else update.unset("normalizedEmail");
+		}
+		update.inc("version", 1);
+		if(friendStorage == FriendStorage.EDGES && set != null && set.containsKey("rating")) {
+			query.fields().include(SORT_KEY_FIELDS);
+			Document updated = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Document.class, mongoTemplate.getCollectionName(User.class));
+			if(updated != null) {
+				copySortKeys(updated);
+				return true;
+			}
+		} else if(mongoTemplate.updateFirst(query, update, User.class).getMatchedCount() == 1) {
+			return true;
+		}
+		if(version != null && mongoTemplate.exists(Query.query(Criteria.where("_id").is(uuid)), User.class)) {
+			throw new OptimisticLockingFailureException("User " + uuid + " is no longer at version " + version);
+		}
+		return false;
+	}
+
+	@Override
+	public Optional<FriendPage> findFriendProfiles(@NotNull UUID uuid, @NotNull FriendSort sort, @Nullable FriendCursor after, int limit) {
+		if(friendStorage == FriendStorage.EDGES) {
+			return exists(uuid) ? Optional.of(findFriendshipProfiles(uuid, sort, after, limit)) : Optional.empty();
+		}
+		Query user = Query.query(Criteria.where("_id").is(uuid));
+		user.fields().include("friends");
+		Document friendList = mongoTemplate.findOne(user, Document.class, mongoTemplate.getCollectionName(User.class));
+		if(friendList == null) return Optional.empty();
+		List<?> friends = friendList.getList("friends", Object.class, List.of());
+		if(friends.isEmpty()) return Optional.of(new FriendPage(List.of(), null));
+		Criteria criteria = Criteria.where("_id").in(friends);
+		if(after != null) criteria = new Criteria().andOperator(criteria, after(sort, after, "_id"));
+		// one more than the page, to tell whether there is a next page.
+		Query page = Query.query(criteria).with(sort.toSort()).limit(limit + 1);
+		List<UserProfile> profiles = mongoTemplate.query(User.class).as(UserProfile.class).matching(page).all();
+		if(profiles.size() <= limit) return Optional.of(new FriendPage(profiles, null));
+		return Optional.of(new FriendPage(profiles.subList(0, limit), FriendCursor.after(sort, profiles.get(limit - 1))));
+	}
+
+	@Override
+	public boolean copySortKeys(@NotNull UUID friend) {
+		Query user = Query.query(Criteria.where("_id").is(friend));
+		user.fields().include(SORT_KEY_FIELDS);
+		Document current = mongoTemplate.findOne(user, Document.class, mongoTemplate.getCollectionName(User.class));
+		if(current == null) return false;
+		copySortKeys(current);
+		return true;
+	}
+
+	/**
+	 * Pages through the {@link Friendship}s of a user with a single aggregation. The page is found by the sort keys
+	 * copied to the friendships, through the index of its order, and only then is the profile of each of its
+	 * friends looked up.
+	 */
+	private FriendPage findFriendshipProfiles(UUID uuid, FriendSort sort, @Nullable FriendCursor after, int limit) {
+		Criteria friendships = Criteria.where("user").is(uuid);
+		if(after != null) friendships = new Criteria().andOperator(friendships, after(sort, after, "friend"));
+		// the IDs of embedded documents are only kept if asked for.
+		Document fields = new Document("friend", 1).append("profile._id", 1);
+		if(sort.getField() != null) fields.append(sort.getField(), 1);
+		for(String field : PROFILE_FIELDS) fields.append("profile." + field, 1);
+		Aggregation page = Aggregation.newAggregation(
+				Aggregation.match(friendships),
+				Aggregation.sort(sort.toSort("friend")),
+				// one more than the page, to tell whether there is a next page.
+				Aggregation.limit(limit + 1),
+				Aggregation.lookup(mongoTemplate.getCollectionName(User.class), "friend", "_id", "profile"),
+				// friendships of users that no longer exist are kept until here, so that the next page resumes after them.
+				Aggregation.unwind("profile", true),
+				context -> new Document("$project", fields)
+		);
+		List<Document> edges = mongoTemplate.aggregate(page, mongoTemplate.getCollectionName(Friendship.class), Document.class).getMappedResults();
+		List<UserProfile> profiles = edges.stream()
+				.limit(limit)
+				.map(edge -> edge.get("profile", Document.class))
+				.filter(Objects::nonNull)
+				.map(profile -> projectionFactory.createProjection(UserProfile.class, mongoTemplate.getConverter().read(User.class, profile)))
+				.toList();
+		if(edges.size() <= limit) return new FriendPage(profiles, null);
+		Document last = edges.get(limit - 1);
+		Object key = sort.getField() == null ? null : last.get(sort.getField());
+		return new FriendPage(profiles, new FriendCursor(sort, key, last.get("friend", UUID.class)));
+	}
+
+	/**
+	 * Adds friendships, of which there is at most one per friend. They are added independently, so if some fail,
+	 * the others are still added.
+	 */
+	private void insertFriendships(UUID uuid, Collection<UUID> friends) {
+		Map<UUID, Document> copied = findSortKeys(friends);
+		BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Friendship.class);
+		Instant now = Instant.now();
+		for(UUID friend : friends) {
+			Update update = new Update().setOnInsert("createdAt", now);
+			Document keys = copied.get(friend);
+			if(keys != null) {
+				update.setOnInsert("rating", keys.get("rating"))
+						.setOnInsert("normalizedUsername", normalizedUsername(keys))
+						.setOnInsert("friendVersion", keys.get("version"));
+			}
+			bulk.upsert(Query.query(Criteria.where("user").is(uuid).and("friend").is(friend)), update);
+		}
+		try {
+			bulk.execute();
+		} catch(BulkOperationException e) {
+			// concurrent upserts of the same friendship collide on the unique index; either one adds it.
+			if(e.getErrors().stream().anyMatch(error -> error.getCode() != DUPLICATE_KEY)) throw e;
+		} finally {
+			// friends that changed while being added may have copied their keys before these friendships existed.
+			for(Document current : findSortKeys(friends).values()) {
+				Document keys = copied.get(current.get("_id", UUID.class));
+				if(keys == null || !Objects.equals(keys.get("version"), current.get("version"))) copySortKeys(current);
+			}
+		}
+	}
+
+	/**
+	 * Reads the sort keys and versions of users.
+	 * @return the {@link #SORT_KEY_FIELDS} of each user that exists, by UUID.
+	 */
+	private Map<UUID, Document> findSortKeys(Collection<UUID> uuids) {
+		Query users = Query.query(Criteria.where("_id").in(uuids));
+		users.fields().include(SORT_KEY_FIELDS);
+		return mongoTemplate.find(users, Document.class, mongoTemplate.getCollectionName(User.class)).stream()
+				.collect(Collectors.toMap(user -> user.get("_id", UUID.class), Function.identity()));
+	}
+
+	/**
+	 * Copies the sort keys of a user, read with {@link #SORT_KEY_FIELDS}, to the friendships that have the user as
+	 * their friend and hold the keys of an older version, or none at all.
+	 */
+	private void copySortKeys(Document friend) {
+		Object version = friend.get("version");
+		Criteria older = version == null
+				? Criteria.where("friendVersion").is(null)
+				: new Criteria().orOperator(Criteria.where("friendVersion").lt(version), Criteria.where("friendVersion").is(null));
+		Update keys = new Update().set("rating", friend.get("rating"))
+				.set("normalizedUsername", normalizedUsername(friend))
+				.set("friendVersion", version);
+		mongoTemplate.updateMulti(Query.query(new Criteria().andOperator(Criteria.where("friend").is(friend.get("_id")), older)), keys, Friendship.class);
+	}
+
+	@Nullable
+	private static String normalizedUsername(Document user) {
+		String username = user.getString("username");
+		return username == null ? null : User.normalize(username);
+	}
+
+	/**
+	 * Matches the friends that come after a cursor: those whose sort key is beyond the cursor's, and those with the
+	 * same sort key whose UUID, in the given field, is greater.
+	 */
+	private static Criteria after(FriendSort sort, FriendCursor after, String uuidField) {
+		if(sort.getField() == null) return Criteria.where(uuidField).gt(after.uuid());
+		String field = sort.getField();
+		Criteria tie = Criteria.where(field).is(after.key()).and(uuidField).gt(after.uuid());
+		// missing keys sort below all others, so they come first in ascending order and last in descending order.
+		Criteria beyond;
+		if(sort.getDirection().isAscending()) {
+			beyond = after.key() == null ? Criteria.where(field).ne(null) : Criteria.where(field).gt(after.key());
+		} else if(after.key() == null) {
+			return tie;
+		} else {
+			beyond = new Criteria().orOperator(Criteria.where(field).lt(after.key()), Criteria.where(field).is(null));
+		}
+		return new Criteria().orOperator(beyond, tie);
+	}
+
+	private boolean exists(UUID uuid) {
+		return mongoTemplate.exists(Query.query(Criteria.where("_id").is(uuid)), User.class);
+	}
+
+	private boolean update(UUID uuid, Update update) {
+		return mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(uuid)), update, User.class).getMatchedCount() == 1;
+	}
+
+}
@@ -21,6 +21,10 @@ public abstract class ErrorResponses {
 			CAPTCHA_ERROR = "Gateway.Captcha",
 			BAD_CREDENTIALS = "Gateway.BadCredentials",
 			UNAUTHORIZED = "Gateway.Unauthorized",
-			PARAMETER_ERROR = "Gateway.Parameters";
+			PARAMETER_ERROR = "Gateway.Parameters",
+			OVERLOADED = "Gateway.Overloaded",
+			TOO_MANY_ATTEMPTS = "Gateway.TooManyAttempts",
+			CAPTCHA_UNAVAILABLE = "Gateway.CaptchaUnavailable",
+			VERSION_CONFLICT = "Gateway.VersionConflict";
 
 }
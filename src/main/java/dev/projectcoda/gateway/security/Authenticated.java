@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a handler method as requiring a valid Gateway token in the {@code Authorization} header, using the
+ * {@code Bearer} scheme. Requests that fail any of the requirements below are answered with {@code 401 Unauthorized}
+ * by {@link AuthenticationInterceptor} before the handler runs.
+ * <p>The authenticated caller can be obtained by declaring a {@link GatewayPrincipal} parameter on the handler.</p>
+ * @author Gerard Sayson
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Authenticated {
+
+	/**
+	 * The {@link Permissions} that the token must carry, if any.
+	 * @return the required permissions.
+	 */
+	String[] permissions() default {};
+
+	/**
+	 * The name of the path variable that must equal the token's subject, if any. This restricts
+	 * the handler to the user it operates on.
+	 * @return the name of the path variable holding the user's UUID.
+	 */
+	String subject() default "";
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.projectcoda.gateway.api.ErrorResponse;
+import dev.projectcoda.gateway.i18n.ErrorResponses;
+import dev.projectcoda.gateway.util.HttpUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Authenticates requests to handlers annotated with {@link Authenticated}. The bearer token is parsed and
+ * decoded once per request, checked against the annotation, and exposed to the handler as a {@link GatewayPrincipal}.
+ * Requests that fail are answered with {@code 401 Unauthorized} without reaching the handler.
+ * @author Gerard Sayson
+ */
+@Component
+public class AuthenticationInterceptor implements HandlerInterceptor {
+
+	private final AuthorizationService authorizationService;
+	private final ObjectMapper objectMapper;
+
+	/**
+	 * The {@link AuthenticationInterceptor} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param authorizationService The {@link AuthorizationService} to decode tokens with.
+	 * @param objectMapper The {@link ObjectMapper} to write error responses with.
+	 */
+	public AuthenticationInterceptor(@Autowired AuthorizationService authorizationService, @Autowired ObjectMapper objectMapper) {
+		this.authorizationService = authorizationService;
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public boolean preHandle(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull Object handler) throws IOException {
+		if(!(handler instanceof HandlerMethod method)) return true;
+		Authenticated authenticated = method.getMethodAnnotation(Authenticated.class);
+		if(authenticated == null) return true;
+		GatewayPrincipal principal = authenticate(request);
+		if(principal == null || !authorize(authenticated, principal, request)) {
+			response.setStatus(HttpStatus.UNAUTHORIZED.value());
+			response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+			objectMapper.writeValue(response.getOutputStream(), new ErrorResponse(ErrorResponses.UNAUTHORIZED));
+			return false;
+		}
+		request.setAttribute(GatewayPrincipal.ATTRIBUTE, principal);
+		return true;
+	}
+
+	/**
+	 * Decodes the bearer token of the given request.
+	 * @param request The request to authenticate.
+	 * @return the {@link GatewayPrincipal} of the request, or {@code null} if it carries no valid token.
+	 */
+	private GatewayPrincipal authenticate(HttpServletRequest request) {
+		Optional<String> bearer = HttpUtils.getBearerToken(request.getHeader(HttpHeaders.AUTHORIZATION));
+		if(bearer.isEmpty()) return null;
+		TokenVerification verification = authorizationService.verifyToken(bearer.get());
+		return verification.isValid() ? GatewayPrincipal.of(verification.jwt()) : null;
+	}
+
+	/**
+	 * Checks the given principal against the requirements of the handler.
+	 * @return whether the principal may call the handler.
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean authorize(Authenticated authenticated, GatewayPrincipal principal, HttpServletRequest request) {
+		for(String permission : authenticated.permissions()) {
+			if(!principal.hasPermission(permission)) return false;
+		}
+		if(!authenticated.subject().isEmpty()) {
+			Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+			return variables != null && principal.uuid().toString().equals(variables.get(authenticated.subject()));
+		}
+		return true;
+	}
+
+}
@@ -8,27 +8,28 @@ package dev.projectcoda.gateway.security;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.Claim;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import dev.projectcoda.gateway.conf.GatewayConfiguration;
 import dev.projectcoda.gateway.data.User;
+import dev.projectcoda.gateway.data.UserCredentials;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Getter;
-import lombok.Lombok;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
-import java.nio.charset.StandardCharsets;
-import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
-import java.security.interfaces.ECPrivateKey;
-import java.security.interfaces.ECPublicKey;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Base64;
-import java.util.List;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -39,41 +40,66 @@ import java.util.UUID;
 @Service
 public class AuthorizationService {
 
-	@Getter private static final ECPublicKey publicKey;
-	private static final ECPrivateKey privateKey;
-	@Getter private static final Algorithm algorithm;
+	/**
+	 * The issuer claim of every Gateway token.
+	 */
+	public static final String ISSUER = "Coda Gateway";
 
-	// Verifies both regular and refresh tokens.
-	private static final JWTVerifier verifier;
+	/**
+	 * The audience claim of every Gateway token.
+	 */
+	public static final String AUDIENCE = "projectcoda.dev";
 
-	static {
-		log.info("Initializing ECDSA keypair");
-		try {
-			KeyPair keyPair = KeyPairGenerator.getInstance("ECDSA").generateKeyPair();
-			publicKey = (ECPublicKey) keyPair.getPublic();
-			privateKey = (ECPrivateKey) keyPair.getPrivate();
-			log.info("Base64 | Public key: {}", new String(Base64.getEncoder().encode(publicKey.getEncoded()), StandardCharsets.UTF_8));
-			log.info("Base64 | Private key: {}", new String(Base64.getEncoder().encode(privateKey.getEncoded()), StandardCharsets.UTF_8));
-		} catch(NoSuchAlgorithmException e) {
-			throw Lombok.sneakyThrow(e);
-		}
-		log.info("Initializing JavaJWT Algorithm object");
-		algorithm = Algorithm.ECDSA512(publicKey, privateKey);
-		verifier = JWT.require(algorithm).withIssuer("Coda Gateway")
-				.withAudience("projectcoda.dev")
-				.withClaimPresence("permissions")
-				.withClaimPresence("refreshToken")
-				.build();
-	}
+	/**
+	 * The name under which token rejections are counted, tagged by {@link TokenVerification.Rejection reason}.
+	 */
+	public static final String REJECTION_METRIC_NAME = "gateway.token.rejections";
+
+	// Gateway tokens are a few hundred characters long; anything far longer is not one of ours.
+	private static final int MAX_TOKEN_LENGTH = 4096;
+
+	@Getter private final KeyRing keyRing;
+	@Getter private final Algorithm algorithm;
+
+	// Verifies both regular and refresh tokens.
+	private final JWTVerifier verifier;
+	private final TokenMinter minter;
 	private final GatewayConfiguration configuration;
+	private final VerifiedTokenCache tokenCache;
+	private final RevocationList revocationList;
+	private final RefreshFamilies refreshFamilies;
+	private final Map<TokenVerification.Rejection, Counter> rejections = new EnumMap<>(TokenVerification.Rejection.class);
 
 	/**
 	 * The {@link AuthorizationService} constructor.
 	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
 	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @param registry The {@link MeterRegistry} to publish token cache metrics to.
+	 * @param revocationList The {@link RevocationList} to check tokens against.
+	 * @param refreshFamilies The {@link RefreshFamilies} that track rotated refresh tokens.
 	 */
-	public AuthorizationService(@Autowired GatewayConfiguration configuration) {
+	public AuthorizationService(@Autowired GatewayConfiguration configuration, @Autowired MeterRegistry registry, @Autowired RevocationList revocationList, @Autowired RefreshFamilies refreshFamilies) {
 		this.configuration = configuration;
+		this.revocationList = revocationList;
+		this.refreshFamilies = refreshFamilies;
+		this.keyRing = KeyRing.load(configuration);
+		log.info("Initializing JavaJWT Algorithm object");
+		this.algorithm = configuration.getAlgorithm().create(keyRing);
+		this.verifier = JWT.require(algorithm).withIssuer(ISSUER)
+				.withAudience(AUDIENCE)
+				.withClaimPresence("permissions")
+				.withClaimPresence("refreshToken")
+				.build();
+		this.minter = new TokenMinter(algorithm);
+		// no token outlives a refresh token, so there is no point in holding entries any longer.
+		this.tokenCache = new VerifiedTokenCache(configuration.getTokenCacheSize(), Duration.ofDays(configuration.getRefreshExpiration()));
+		this.tokenCache.bindTo(registry);
+		for(TokenVerification.Rejection rejection : TokenVerification.Rejection.values()) {
+			rejections.put(rejection, Counter.builder(REJECTION_METRIC_NAME)
+					.description("Tokens rejected by Gateway")
+					.tag("reason", rejection.name().toLowerCase(Locale.ROOT))
+					.register(registry));
+		}
 	}
 
 	/**
@@ -83,50 +109,91 @@ public class AuthorizationService {
 	 *     <li>Its audience claim is {@code projectcoda.dev}</li>
 	 *     <li>Its expiry is {@link GatewayConfiguration#getRefreshExpiration()} days from {@link Instant#now()}.</li>
 	 *     <li>Its subject is the given user's {@link UUID}, in a string representation.</li>
-	 *     <li>The claim {@code permissions} contains the user's permissions.</li>
+	 *     <li>Its token ID ({@code jti}) is a random {@link UUID}, and its issued-at claim is {@link Instant#now()}.</li>
+	 *     <li>The claim {@code permissions} contains the user's permissions, as a list of names or as a compact
+	 *     {@link Permission} mask if {@link GatewayConfiguration#isCompactPermissions()} is set.</li>
 	 *     <li>The claim {@code refreshToken} is {@code true}.</li>
+	 *     <li>If {@link GatewayConfiguration#isRefreshRotation()} is set, the claim {@code fam} is the ID of a new
+	 *     refresh token family in {@link RefreshFamilies}.</li>
+	 *     <li>Its {@code kid} header is the ID of the active key in the {@link KeyRing}.</li>
 	 * </ul>
 	 * <p>This is only for use in {@link #issueRegularToken}, and this should be kept safeguarded.</p>
-	 * @param user The {@link User} to issue a JWT token for.
+	 * @param user The {@linkplain UserCredentials credentials} of the {@link User} to issue a JWT token for.
 	 * @return a JWT token that is subject to the above constraints.
 	 * @see #issueRegularToken(String)
 	 */
-	public String issueRefreshToken(@NotNull User user) {
-		return JWT.create().withIssuer("Coda Gateway")
-				.withAudience("projectcoda.dev")
-				.withExpiresAt(Instant.now().plus(configuration.getRefreshExpiration(), ChronoUnit.DAYS))
-				.withSubject(user.getUuid().toString())
-				.withClaim("permissions", user.getPermissions())
-				.withClaim("refreshToken", true)
-				.sign(algorithm);
+	public String issueRefreshToken(@NotNull UserCredentials user) {
+		String id = UUID.randomUUID().toString();
+		String subject = user.getUuid().toString();
+		Instant now = Instant.now();
+		Instant expiresAt = now.plus(configuration.getRefreshExpiration(), ChronoUnit.DAYS);
+		String family = configuration.isRefreshRotation() ? refreshFamilies.start(user.getUuid(), id, expiresAt) : null;
+		return configuration.isCompactPermissions()
+				? minter.mint(id, subject, family, now, expiresAt, Permission.mask(user.getPermissions()), true)
+				: minter.mint(id, subject, family, now, expiresAt, user.getPermissions(), true);
+	}
+
+	/**
+	 * Rotates the given {@linkplain #issueRefreshToken(UserCredentials) refresh token}: if it belongs to a refresh token family,
+	 * a successor with a new token ID is issued and the given token is retired and revoked. Using a retired token
+	 * invalidates its whole family, and as retired tokens are revoked, so does using any revoked token of a family.
+	 * The successor keeps the subject, permissions and expiry of the given token.
+	 * <p>Refresh tokens without a family, i.e. those issued while {@link GatewayConfiguration#isRefreshRotation()}
+	 * was not set, are returned as they are.</p>
+	 * @param refreshToken The refresh token to rotate.
+	 * @return the refresh token to use from now on.
+	 * @throws com.auth0.jwt.exceptions.JWTVerificationException if the given token is not a valid refresh token, or has been retired.
+	 */
+	public String rotateRefreshToken(@NotBlank String refreshToken) {
+		DecodedJWT jwt = tokenCache.get(refreshToken, verifier::verify);
+		if(!Boolean.TRUE.equals(jwt.getClaim("refreshToken").asBoolean())) throw new JWTVerificationException("The token is not a refresh token.");
+		String family = jwt.getClaim("fam").asString();
+		if(revocationList.isRevoked(jwt)) {
+			// retired tokens are revoked, so this may be a replay, which decodeToken would turn away before it is noticed.
+			if(family != null) refreshFamilies.invalidate(family);
+			throw new JWTVerificationException("The token has been revoked.");
+		}
+		if(family == null || jwt.getId() == null) return refreshToken;
+		String id = UUID.randomUUID().toString();
+		if(!refreshFamilies.rotate(family, jwt.getId(), id)) throw new JWTVerificationException("The refresh token has already been used.");
+		Claim permissions = jwt.getClaim("permissions");
+		String rotated = configuration.isCompactPermissions()
+				? minter.mint(id, jwt.getSubject(), family, Instant.now(), jwt.getExpiresAtAsInstant(), Permission.mask(permissions), true)
+				: minter.mint(id, jwt.getSubject(), family, Instant.now(), jwt.getExpiresAtAsInstant(), Permission.names(permissions), true);
+		// freshly signed by us, so it is as good as verified.
+		tokenCache.put(rotated, JWT.decode(rotated));
+		return rotated;
 	}
 
 	/**
-	 * Issue a <em>regular</em> JWT token from the given {@linkplain #issueRefreshToken(User) refresh token}. It has the following properties:
+	 * Issue a <em>regular</em> JWT token from the given {@linkplain #issueRefreshToken(UserCredentials) refresh token}. It has the following properties:
 	 * <ul>
 	 *     <li>Its issuer claim is {@code Coda Gateway}</li>
 	 *     <li>Its audience claim is {@code projectcoda.dev}</li>
 	 *     <li>Its expiry is {@link GatewayConfiguration#getTokenExpiration()} hours from {@link Instant#now()}.</li>
 	 *     <li>Its subject is the given user's {@link UUID}, in a string representation.</li>
-	 *     <li>The claim {@code permissions} contains the user's permissions.</li>
+	 *     <li>Its token ID ({@code jti}) is a random {@link UUID}, and its issued-at claim is {@link Instant#now()}.</li>
+	 *     <li>The claim {@code permissions} contains the user's permissions, as a list of names or as a compact
+	 *     {@link Permission} mask if {@link GatewayConfiguration#isCompactPermissions()} is set.</li>
 	 *     <li>The claim {@code refreshToken} is {@code false}.</li>
+	 *     <li>Its {@code kid} header is the ID of the active key in the {@link KeyRing}.</li>
 	 * </ul>
 	 * <p>The issued token can be used in all authenticated Coda services.</p>
 	 * @param refreshToken The refresh token to issue.
 	 * @return a JWT token that is subject to the above constraints.
 	 * @throws com.auth0.jwt.exceptions.JWTVerificationException if an exception occurred while verifying the given refresh token.
-	 * @see #issueRefreshToken(User)
+	 * @see #issueRefreshToken(UserCredentials)
 	 * @see JWTVerifier#verify(String)
 	 */
 	public String issueRegularToken(@NotBlank String refreshToken) {
-		DecodedJWT jwt = verifier.verify(refreshToken);
-		return JWT.create().withIssuer("Coda Gateway")
-				.withAudience("projectcoda.dev")
-				.withExpiresAt(Instant.now().plus(configuration.getTokenExpiration(), ChronoUnit.HOURS))
-				.withSubject(jwt.getSubject())
-				.withClaim("permissions", List.of(jwt.getClaim("permissions").asArray(String.class)))
-				.withClaim("refreshToken", false)
-				.sign(algorithm);
+		DecodedJWT jwt = decodeToken(refreshToken);
+		String id = UUID.randomUUID().toString();
+		Instant now = Instant.now();
+		Instant expiresAt = now.plus(configuration.getTokenExpiration(), ChronoUnit.HOURS);
+		Claim permissions = jwt.getClaim("permissions");
+		return configuration.isCompactPermissions()
+				? minter.mint(id, jwt.getSubject(), null, now, expiresAt, Permission.mask(permissions), false)
+				: minter.mint(id, jwt.getSubject(), null, now, expiresAt, Permission.names(permissions), false);
 	}
 
 	/**
@@ -138,13 +205,102 @@ public class AuthorizationService {
 	 *     <li>Its subject is the given user's {@link UUID}, in a string representation.</li>
 	 *     <li>The claim {@code permissions} is present.</li>
 	 *     <li>The claim {@code refreshToken} is present.</li>
+	 *     <li>It is signed with {@link GatewayConfiguration#getAlgorithm()}, by the key in the {@link KeyRing} that its {@code kid} header names.</li>
+	 *     <li>It has not been revoked through the {@link RevocationList}.</li>
 	 * </ul>
+	 * <p>Tokens that have already been verified are served from a {@link VerifiedTokenCache} until they expire,
+	 * skipping the signature check.</p>
 	 * @param jwt The JWT token to verify.
 	 * @return a {@link DecodedJWT}.
 	 * @throws com.auth0.jwt.exceptions.JWTVerificationException if an exception occurred while verifying the given JWT token.
 	 */
 	public DecodedJWT decodeToken(@NotBlank String jwt) {
-		return verifier.verify(jwt);
+		DecodedJWT decoded = tokenCache.get(jwt, verifier::verify);
+		if(revocationList.isRevoked(decoded)) throw new JWTVerificationException("The token has been revoked.");
+		return decoded;
+	}
+
+	/**
+	 * Revokes the given token, if it is valid. Revoking a refresh token does not revoke the authorization tokens
+	 * already issued from it; see {@link #revokeUser(UUID)}.
+	 * @param token The token to revoke.
+	 * @return whether the token was revoked.
+	 */
+	public boolean revokeToken(String token) {
+		TokenVerification verification = verifyToken(token);
+		return verification.isValid() && revocationList.revokeToken(verification.jwt());
+	}
+
+	/**
+	 * Revokes every token issued to the given user up to now.
+	 * @param uuid The UUID of the user.
+	 */
+	public void revokeUser(@NotNull UUID uuid) {
+		revocationList.revokeUser(uuid);
+	}
+
+	/**
+	 * Verifies a token like {@link #decodeToken(String)}, but reports invalid tokens through the returned
+	 * {@link TokenVerification} instead of throwing.
+	 * <p>Tokens are checked from the cheapest check to the most expensive one: their structure, then their header
+	 * and claims, and only then their signature. Garbage and expired tokens are thus rejected without decoding
+	 * their signature or creating exceptions. Every rejection is counted under {@link #REJECTION_METRIC_NAME}.</p>
+	 * @param token The JWT token to verify. This may be {@code null}.
+	 * @return the outcome of the verification.
+	 */
+	public TokenVerification verifyToken(String token) {
+		if(!isWellFormed(token)) return reject(TokenVerification.Rejection.MALFORMED);
+		DecodedJWT jwt = tokenCache.getIfPresent(token);
+		if(jwt != null) return revocationList.isRevoked(jwt) ? reject(TokenVerification.Rejection.REVOKED) : TokenVerification.valid(jwt);
+		try {
+			jwt = JWT.decode(token);
+		} catch(JWTDecodeException e) {
+			return reject(TokenVerification.Rejection.MALFORMED);
+		}
+		if(!algorithm.getName().equals(jwt.getAlgorithm())) return reject(TokenVerification.Rejection.ALGORITHM);
+		if(!ISSUER.equals(jwt.getIssuer())) return reject(TokenVerification.Rejection.ISSUER);
+		if(jwt.getAudience() == null || !jwt.getAudience().contains(AUDIENCE)) return reject(TokenVerification.Rejection.AUDIENCE);
+		Instant expiresAt = jwt.getExpiresAtAsInstant();
+		if(expiresAt == null || jwt.getClaim("permissions").isMissing() || jwt.getClaim("refreshToken").isMissing()) {
+			return reject(TokenVerification.Rejection.CLAIMS);
+		}
+		if(!expiresAt.isAfter(Instant.now())) return reject(TokenVerification.Rejection.EXPIRED);
+		try {
+			verifier.verify(jwt);
+		} catch(JWTVerificationException e) {
+			// only reached by tokens that look like ours in every way but their signature.
+			return reject(TokenVerification.Rejection.SIGNATURE);
+		}
+		tokenCache.put(token, jwt);
+		if(revocationList.isRevoked(jwt)) return reject(TokenVerification.Rejection.REVOKED);
+		return TokenVerification.valid(jwt);
+	}
+
+	private TokenVerification reject(TokenVerification.Rejection rejection) {
+		rejections.get(rejection).increment();
+		return TokenVerification.rejected(rejection);
+	}
+
+	/**
+	 * Checks whether the given token consists of three Base64URL-encoded parts separated by dots, without decoding it.
+	 * @param token The token to check.
+	 * @return whether the token is structurally a JWT.
+	 */
+	private static boolean isWellFormed(String token) {
+		if(token == null || token.isEmpty() || token.length() > MAX_TOKEN_LENGTH) return false;
+		int dots = 0;
+		int partStart = 0;
+		for(int i = 0; i < token.length(); i++) {
+			char c = token.charAt(i);
+			if(c == '.') {
+				if(i == partStart) return false; // empty part
+				dots++;
+				partStart = i + 1;
+			} else if(!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_')) {
+				return false;
+			}
+		}
+		return dots == 2 && partStart < token.length();
 	}
 
 }
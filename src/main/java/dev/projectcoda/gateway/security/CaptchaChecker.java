@@ -1,46 +1,294 @@
 package dev.projectcoda.gateway.security;
 
+import dev.projectcoda.gateway.conf.ExecutorConfiguration;
 import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import dev.projectcoda.gateway.util.CircuitBreaker;
 import dev.projectcoda.gateway.util.RecaptchaUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PreDestroy;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
  * A service that validates Google reCAPTCHAs.
+ * <p>Every verification goes through one {@link RestTemplate}, backed by a pool of keep-alive connections to the
+ * verification endpoint, so that signups do not each pay for a new TLS handshake.</p>
+ * <p>Verifications run on the {@linkplain ExecutorConfiguration#IO_EXECUTOR I/O executor}, behind a
+ * {@link CircuitBreaker} that opens once too many recent verifications were slow or failed. While it is open, or when
+ * a verification fails, no thread waits on the endpoint; the signup is handled by the configured
+ * {@link CaptchaFallback} instead.</p>
  * @author Gerard Sayson
  */
+@Slf4j
+@Service
 public class CaptchaChecker {
 
-	private static final String GOOGLE_RECAPTCHA_VERIFY_URL = "https://www.google.com/recaptcha/api/siteverify";
+	/**
+	 * The name under which the round-trip time of verifications is published, tagged by outcome.
+	 */
+	public static final String METRIC_NAME = "gateway.captcha.latency";
+
+	/**
+	 * The name under which the state of the circuit breaker is published, as the ordinal of its
+	 * {@link CircuitBreaker.State}.
+	 */
+	public static final String BREAKER_METRIC_NAME = "gateway.captcha.breaker";
+
+	/**
+	 * The name under which signups handled by the {@link CaptchaFallback} are counted, tagged by policy.
+	 */
+	public static final String FALLBACK_METRIC_NAME = "gateway.captcha.fallbacks";
+
+	private static final Duration IDLE_CONNECTION_TIMEOUT = Duration.ofSeconds(30);
+	// the least time a queued signup waits before trying again, e.g. after a single failed call.
+	private static final Duration MIN_QUEUE_WAIT = Duration.ofMillis(500);
+	private static final int MAX_QUEUED = 1024;
+	// left of the async request timeout for hashing and saving the user once the last verification is answered.
+	private static final Duration SIGNUP_HEADROOM = Duration.ofSeconds(5);
+	private static final Verdict UNVERIFIED = new Verdict("", true);
+	// the reason given for an unsolved reCAPTCHA that the endpoint gave no error codes for.
+	private static final String UNSOLVED = "The reCAPTCHA was not solved";
+
 	private final String recaptchaSecret;
-	private final RestTemplateBuilder restTemplateBuilder;
+	private final String verifyUrl;
+	private final CloseableHttpClient httpClient;
+	private final RestTemplate restTemplate;
+	private final Timer successTimer;
+	private final Timer failureTimer;
+	private final Timer errorTimer;
+	private final CircuitBreaker breaker;
+	private final CaptchaFallback fallback;
+	private final long queueTimeoutNanos;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final ExecutorService ioExecutor;
+	private final Counter fallbacks;
 
-	public CaptchaChecker(RestTemplateBuilder restTemplateBuilder, GatewayConfiguration configuration) {
-		this.restTemplateBuilder = restTemplateBuilder;
+	/**
+	 * The {@link CaptchaChecker} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param restTemplateBuilder The {@link RestTemplateBuilder} to build the client from.
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @param registry The {@link MeterRegistry} to publish verification metrics to.
+	 * @param ioExecutor The executor to make verification calls on.
+	 */
+	public CaptchaChecker(@Autowired RestTemplateBuilder restTemplateBuilder, @Autowired GatewayConfiguration configuration, @Autowired MeterRegistry registry, @Autowired @Qualifier(ExecutorConfiguration.IO_EXECUTOR) ExecutorService ioExecutor) {
 		this.recaptchaSecret = configuration.getRecaptchaSecret();
+		this.verifyUrl = configuration.getRecaptchaVerifyUrl() + "?secret={secret}&response={response}";
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(configuration.getRecaptchaMaxConnections());
+		connectionManager.setDefaultMaxPerRoute(configuration.getRecaptchaMaxConnections());
+		this.httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.evictIdleConnections(IDLE_CONNECTION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+				.disableCookieManagement()
+				.build();
+		this.restTemplate = restTemplateBuilder
+				.requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+				.setConnectTimeout(Duration.ofMillis(configuration.getRecaptchaConnectTimeout()))
+				.setReadTimeout(Duration.ofMillis(configuration.getRecaptchaReadTimeout()))
+				.build();
+		this.successTimer = timer(registry, "success");
+		this.failureTimer = timer(registry, "failure");
+		this.errorTimer = timer(registry, "error");
+		this.breaker = new CircuitBreaker(
+				configuration.getRecaptchaBreakerWindow(),
+				configuration.getRecaptchaFailureRateThreshold(),
+				Duration.ofMillis(configuration.getRecaptchaSlowCallThreshold()),
+				Duration.ofSeconds(configuration.getRecaptchaBreakerOpenDuration())
+		);
+		this.fallback = configuration.getRecaptchaFallback();
+		this.queueTimeoutNanos = queueTimeout(configuration).toNanos();
+		this.ioExecutor = ioExecutor;
+		this.fallbacks = Counter.builder(FALLBACK_METRIC_NAME)
+				.description("Signups handled by the reCAPTCHA fallback policy")
+				.tag("policy", fallback.name())
+				.register(registry);
+		Gauge.builder(BREAKER_METRIC_NAME, breaker, b -> b.getState().ordinal())
+				.description("State of the reCAPTCHA circuit breaker: 0 closed, 1 open, 2 half-open")
+				.register(registry);
+	}
+
+	/**
+	 * Verifies a reCAPTCHA response, unless the verification endpoint is unavailable, in which case the configured
+	 * {@link CaptchaFallback} applies.
+	 * @param recaptchaResponse The {@code g-recaptcha-response} sent by the client.
+	 * @return the {@link Verdict}, once it is known. It completes with a {@link CaptchaUnavailableException} if the
+	 * reCAPTCHA could not be verified and the fallback does not admit the signup.
+	 * @throws RejectedExecutionException if the I/O executor is saturated.
+	 */
+	public CompletableFuture<Verdict> verify(@NotNull String recaptchaResponse) {
+		return attempt(recaptchaResponse, System.nanoTime() + queueTimeoutNanos);
+	}
+
+	private CompletableFuture<Verdict> attempt(String recaptchaResponse, long deadline) {
+		CircuitBreaker.Permit permit = breaker.tryAcquire();
+		if(permit == null) return fallback(recaptchaResponse, deadline);
+		CompletableFuture<Verdict> call;
+		try {
+			call = CompletableFuture.supplyAsync(() -> call(permit, recaptchaResponse), ioExecutor);
+		} catch(RejectedExecutionException e) {
+			permit.release();
+			throw e;
+		}
+		return call.exceptionallyCompose(e -> {
+			Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+			return cause instanceof RestClientException ? fallback(recaptchaResponse, deadline) : CompletableFuture.failedFuture(cause);
+		});
+	}
+
+	private CompletableFuture<Verdict> fallback(String recaptchaResponse, long deadline) {
+		fallbacks.increment();
+		return switch(fallback) {
+			case REJECT -> unavailable();
+			case ADMIT -> CompletableFuture.completedFuture(UNVERIFIED);
+			case QUEUE -> queue(recaptchaResponse, deadline);
+		};
+	}
+
+	/**
+	 * Tries again once the breaker may let a call through. The wait is timed on the common pool, as a task that
+	 * the I/O executor rejects when the delay fires would be lost, leaving the signup hanging.
+	 */
+	private CompletableFuture<Verdict> queue(String recaptchaResponse, long deadline) {
+		long wait = Math.max(breaker.getRetryAfter().toNanos(), MIN_QUEUE_WAIT.toNanos());
+		if(System.nanoTime() + wait - deadline > 0) return unavailable();
+		if(queued.incrementAndGet() > MAX_QUEUED) {
+			queued.decrementAndGet();
+			return unavailable();
+		}
+		return CompletableFuture.runAsync(queued::decrementAndGet, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS))
+				.thenCompose(v -> attempt(recaptchaResponse, deadline));
+	}
+
+	private CompletableFuture<Verdict> unavailable() {
+		return CompletableFuture.failedFuture(new CaptchaUnavailableException(breaker.getRetryAfter()));
 	}
 
-	@SuppressWarnings("unchecked")
-	public String verifyRecaptcha(String recaptchaResponse) {
+	private Verdict call(CircuitBreaker.Permit permit, String recaptchaResponse) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			Verdict verdict = new Verdict(verifyRecaptcha(recaptchaResponse), false);
+			failed = false;
+			return verdict;
+		} finally {
+			permit.record(System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Verifies a reCAPTCHA response with the verification endpoint.
+	 * @param recaptchaResponse The {@code g-recaptcha-response} sent by the client.
+	 * @return an empty string if the reCAPTCHA was solved, else the reasons it was not.
+	 * @throws RestClientException if the verification endpoint could not be reached in time, or its answer could not
+	 * be read as a verification.
+	 */
+	private String verifyRecaptcha(String recaptchaResponse) {
 		Map<String, String> body = new HashMap<>();
 		body.put("secret", recaptchaSecret);
 		body.put("response", recaptchaResponse);
-		@SuppressWarnings("rawtypes") ResponseEntity<Map> recaptchaResponseEntity = restTemplateBuilder.build().postForEntity(GOOGLE_RECAPTCHA_VERIFY_URL + "?secret={secret}&response={response}", body, Map.class, body);
-		Map<String, Object> responseBody = recaptchaResponseEntity.getBody();
-		boolean recaptchaSuccess = (Boolean) Objects.requireNonNull(responseBody).get("success");
-		if(!recaptchaSuccess) {
-			List<String> errorCodes = (List<String>) responseBody.get("error-codes");
-			return errorCodes.stream()
-					.map(RecaptchaUtils.RECAPTCHA_ERROR_CODE::get)
-					.collect(Collectors.joining(", "));
-		} else {
-			return "";
+		long start = System.nanoTime();
+		Timer timer = errorTimer;
+		try {
+			@SuppressWarnings("rawtypes") ResponseEntity<Map> recaptchaResponseEntity = restTemplate.postForEntity(verifyUrl, body, Map.class, body);
+			Map<?, ?> responseBody = recaptchaResponseEntity.getBody();
+			// an answer without a verdict is a failed call, like an unreadable one, so that the breaker and fallback see it.
+			if(responseBody == null || !(responseBody.get("success") instanceof Boolean recaptchaSuccess)) {
+				throw new RestClientException("Unexpected verification response: " + responseBody);
+			}
+			if(!recaptchaSuccess) {
+				timer = failureTimer;
+				List<?> errorCodes = responseBody.get("error-codes") instanceof List<?> codes ? codes : List.of();
+				String errors = errorCodes.stream()
+						.map(String::valueOf)
+						.map(code -> RecaptchaUtils.RECAPTCHA_ERROR_CODE.getOrDefault(code, code))
+						.collect(Collectors.joining(", "));
+				return errors.isEmpty() ? UNSOLVED : errors;
+			} else {
+				timer = successTimer;
+				return "";
+			}
+		} finally {
+			timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Closes the pooled connections.
+	 * @throws IOException if the connections could not be closed.
+	 */
+	@PreDestroy
+	public void close() throws IOException {
+		httpClient.close();
+	}
+
+	/**
+	 * The outcome of a reCAPTCHA verification.
+	 * @param errors An empty string if the reCAPTCHA was solved, else the reasons it was not.
+	 * @param unverified Whether the signup was admitted without verification, under {@link CaptchaFallback#ADMIT}.
+	 */
+	public record Verdict(String errors, boolean unverified) {
+
+		/**
+		 * @return whether the signup may go through.
+		 */
+		public boolean passed() {
+			return errors.isEmpty();
+		}
+
+	}
+
+	/**
+	 * Shortens the queue timeout so that a signup whose last verification starts at the deadline is still answered
+	 * within the async request timeout; past it, the signup would be answered with a timeout rather than by the
+	 * fallback policy.
+	 */
+	private static Duration queueTimeout(GatewayConfiguration configuration) {
+		Duration configured = Duration.ofSeconds(configuration.getRecaptchaQueueTimeout());
+		Duration available = Duration.ofSeconds(configuration.getAsyncRequestTimeout())
+				.minusMillis(configuration.getRecaptchaConnectTimeout())
+				.minusMillis(configuration.getRecaptchaReadTimeout())
+				.minus(SIGNUP_HEADROOM);
+		if(configured.compareTo(available) <= 0) return configured;
+		if(configuration.getRecaptchaFallback() == CaptchaFallback.QUEUE) {
+			log.warn("Shortened the reCAPTCHA queue timeout from {} s to {} ms to fit within the async request timeout of {} s",
+					configured.toSeconds(), Math.max(0, available.toMillis()), configuration.getAsyncRequestTimeout());
 		}
+		return available.isNegative() ? Duration.ZERO : available;
+	}
+
+	private static Timer timer(MeterRegistry registry, String outcome) {
+		return Timer.builder(METRIC_NAME)
+				.description("Round-trip time of reCAPTCHA verifications")
+				.tag("outcome", outcome)
+				.register(registry);
 	}
+
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+/**
+ * What {@link CaptchaChecker} does with a signup while the reCAPTCHA verification endpoint is unavailable, i.e. while
+ * its circuit breaker is open or when a verification call fails. The policy is chosen through
+ * {@link dev.projectcoda.gateway.conf.GatewayConfiguration#getRecaptchaFallback()}.
+ * <ul>
+ *     <li><b>{@link #REJECT}</b> - The signup is rejected with {@code 503 Service Unavailable}. This is the default.</li>
+ *     <li><b>{@link #QUEUE}</b> - The signup waits for the breaker to let a call through, up to
+ *     {@link dev.projectcoda.gateway.conf.GatewayConfiguration#getRecaptchaQueueTimeout()} seconds, and is rejected
+ *     if it cannot be verified by then.</li>
+ *     <li><b>{@link #ADMIT}</b> - The signup goes through without verification, and the user is
+ *     {@linkplain dev.projectcoda.gateway.data.User#isUnverified() flagged} for review.</li>
+ * </ul>
+ * @author Gerard Sayson
+ */
+public enum CaptchaFallback {
+
+	REJECT,
+	QUEUE,
+	ADMIT
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import lombok.Getter;
+
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+
+/**
+ * Thrown when a reCAPTCHA cannot be verified because the verification endpoint is unavailable,
+ * and the {@link CaptchaFallback} does not let the signup through.
+ * @author Gerard Sayson
+ */
+@Getter
+public class CaptchaUnavailableException extends RuntimeException {
+
+	/**
+	 * How long until verification may be attempted again.
+	 */
+	private final Duration retryAfter;
+
+	/**
+	 * Creates a new {@link CaptchaUnavailableException}.
+	 * @param retryAfter How long until verification may be attempted again.
+	 */
+	public CaptchaUnavailableException(@NotNull Duration retryAfter) {
+		super("reCAPTCHA verification is unavailable");
+		this.retryAfter = retryAfter;
+	}
+
+}
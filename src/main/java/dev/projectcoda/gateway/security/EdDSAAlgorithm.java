@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.SignatureGenerationException;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Base64;
+
+/**
+ * The {@code EdDSA} JWT algorithm (RFC 8037) over Ed25519, which JavaJWT does not provide itself.
+ * <p>This is for internal use only, through {@link SigningAlgorithm#create(KeyRing)}.</p>
+ * @author Gerard Sayson
+ */
+final class EdDSAAlgorithm extends Algorithm {
+
+	private static final String SIGNATURE_ALGORITHM = "Ed25519";
+
+	private final KeyRing keyRing;
+
+	EdDSAAlgorithm(KeyRing keyRing) {
+		super("EdDSA", SIGNATURE_ALGORITHM);
+		this.keyRing = keyRing;
+	}
+
+	@Override
+	public void verify(DecodedJWT jwt) throws SignatureVerificationException {
+		try {
+			PublicKey publicKey = keyRing.getPublicKeyById(jwt.getKeyId());
+			if(publicKey == null) {
+				throw new IllegalStateException("no public key with key ID '" + jwt.getKeyId() + "' exists");
+			}
+			Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+			signature.initVerify(publicKey);
+			signature.update(jwt.getHeader().getBytes(StandardCharsets.UTF_8));
+			signature.update((byte) '.');
+			signature.update(jwt.getPayload().getBytes(StandardCharsets.UTF_8));
+			if(!signature.verify(Base64.getUrlDecoder().decode(jwt.getSignature()))) {
+				throw new SignatureVerificationException(this);
+			}
+		} catch(GeneralSecurityException | IllegalStateException | IllegalArgumentException e) {
+			throw new SignatureVerificationException(this, e);
+		}
+	}
+
+	@Override
+	public byte[] sign(byte[] contentBytes) throws SignatureGenerationException {
+		try {
+			Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+			signature.initSign(keyRing.getPrivateKey());
+			signature.update(contentBytes);
+			return signature.sign();
+		} catch(GeneralSecurityException e) {
+			throw new SignatureGenerationException(this, e);
+		}
+	}
+
+	@Override
+	public String getSigningKeyId() {
+		return keyRing.getPrivateKeyId();
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+import javax.validation.constraints.NotNull;
+import java.util.UUID;
+
+/**
+ * The caller of an {@linkplain Authenticated authenticated} request, as stated by its verified token.
+ * @param uuid The UUID of the user, from the token's subject.
+ * @param permissions The effective {@link Permission} mask of the user.
+ * @param refreshToken Whether the caller authenticated with a refresh token.
+ * @author Gerard Sayson
+ */
+public record GatewayPrincipal(@NotNull UUID uuid, int permissions, boolean refreshToken) {
+
+	/**
+	 * The request attribute under which {@link AuthenticationInterceptor} stores the principal.
+	 */
+	public static final String ATTRIBUTE = GatewayPrincipal.class.getName();
+
+	/**
+	 * Creates a {@link GatewayPrincipal} from a verified token.
+	 * @param jwt The verified token.
+	 * @return the principal described by the token.
+	 * @throws IllegalArgumentException if the token's subject is not a UUID.
+	 */
+	public static GatewayPrincipal of(@NotNull DecodedJWT jwt) {
+		return new GatewayPrincipal(
+				UUID.fromString(jwt.getSubject()),
+				Permission.effective(Permission.mask(jwt.getClaim("permissions"))),
+				jwt.getClaim("refreshToken").asBoolean()
+		);
+	}
+
+	/**
+	 * Checks whether the principal carries the given permission, directly or through the hierarchy.
+	 * @param permission The {@link Permission} to check.
+	 * @return whether the principal has the permission.
+	 */
+	public boolean hasPermission(@NotNull Permission permission) {
+		return permission.in(permissions);
+	}
+
+	/**
+	 * Checks whether the principal carries the given permission, directly or through the hierarchy.
+	 * @param permission A permission in {@link Permissions}.
+	 * @return whether the principal has the permission. Unknown permissions are never held.
+	 */
+	public boolean hasPermission(@NotNull String permission) {
+		Permission p = Permission.of(permission);
+		return p != null && hasPermission(p);
+	}
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.lang.NonNull;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * Resolves {@link GatewayPrincipal} handler parameters to the principal authenticated by {@link AuthenticationInterceptor}.
+ * The handler must be annotated with {@link Authenticated}, else the parameter resolves to {@code null}.
+ * @author Gerard Sayson
+ */
+public class GatewayPrincipalResolver implements HandlerMethodArgumentResolver {
+
+	@Override
+	public boolean supportsParameter(MethodParameter parameter) {
+		return GatewayPrincipal.class.equals(parameter.getParameterType());
+	}
+
+	@Override
+	public Object resolveArgument(@NonNull MethodParameter parameter, ModelAndViewContainer mavContainer, NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+		return webRequest.getAttribute(GatewayPrincipal.ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.*;
+import java.security.cert.Certificate;
+import java.util.*;
+
+/**
+ * A set of key pairs for a {@link SigningAlgorithm}, each identified by a key ID ({@code kid}).
+ * <p>Tokens are always signed with the <em>active</em> key pair, and its key ID is stamped into the token header.
+ * Tokens are verified with whichever key pair their {@code kid} header names, so that tokens signed with a retired
+ * key stay valid for as long as that key remains in the ring.</p>
+ * <p>Key pairs are loaded from the PKCS#12 keystore at {@link GatewayConfiguration#getKeystorePath()}, where every
+ * alias is a key ID. Entries whose keys do not belong to {@link GatewayConfiguration#getAlgorithm()} are ignored.
+ * When no keystore is configured, a single ephemeral key pair is generated instead.</p>
+ * @author Gerard Sayson
+ */
+@Slf4j
+public final class KeyRing {
+
+	private final Map<String, PublicKey> publicKeys;
+	private final String activeKeyId;
+	private final PrivateKey activePrivateKey;
+
+	private KeyRing(Map<String, PublicKey> publicKeys, String activeKeyId, PrivateKey activePrivateKey) {
+		this.publicKeys = Collections.unmodifiableMap(publicKeys);
+		this.activeKeyId = activeKeyId;
+		this.activePrivateKey = activePrivateKey;
+	}
+
+	/**
+	 * Creates a {@link KeyRing} from the given configuration.
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @return a {@link KeyRing} backed by the configured keystore, else an ephemeral one if there is none.
+	 * @throws IllegalStateException if the keystore cannot be read, or the active key ID cannot be determined.
+	 */
+	public static KeyRing load(@NotNull GatewayConfiguration configuration) {
+		SigningAlgorithm algorithm = configuration.getAlgorithm();
+		if(configuration.getKeystorePath() == null || configuration.getKeystorePath().isBlank()) {
+			return ephemeral(algorithm);
+		}
+		Path path = Path.of(configuration.getKeystorePath());
+		char[] password = configuration.getKeystorePassword() == null ? new char[0] : configuration.getKeystorePassword().toCharArray();
+		log.info("Loading {} key ring from {}", algorithm, path);
+		try(InputStream in = Files.newInputStream(path)) {
+			KeyStore keyStore = KeyStore.getInstance("PKCS12");
+			keyStore.load(in, password);
+			Map<String, PublicKey> publicKeys = new LinkedHashMap<>();
+			Map<String, PrivateKey> privateKeys = new HashMap<>();
+			for(String alias : Collections.list(keyStore.aliases())) {
+				if(!keyStore.isKeyEntry(alias)) continue;
+				Certificate certificate = keyStore.getCertificate(alias);
+				if(certificate == null || !algorithm.accepts(certificate.getPublicKey())) continue;
+				publicKeys.put(alias, certificate.getPublicKey());
+				if(keyStore.getKey(alias, password) instanceof PrivateKey privateKey) {
+					privateKeys.put(alias, privateKey);
+				}
+			}
+			String activeKeyId = configuration.getSigningKeyId();
+			if(activeKeyId == null || activeKeyId.isBlank()) {
+				if(privateKeys.size() != 1) {
+					throw new IllegalStateException("coda.signing-key-id must be set when the keystore does not hold exactly one " + algorithm + " key pair");
+				}
+				activeKeyId = privateKeys.keySet().iterator().next();
+			}
+			PrivateKey activePrivateKey = privateKeys.get(activeKeyId);
+			if(activePrivateKey == null) {
+				throw new IllegalStateException("no " + algorithm + " key pair with key ID '" + activeKeyId + "' exists in " + path);
+			}
+			log.info("Loaded {} {} key(s), signing with key ID '{}'", publicKeys.size(), algorithm, activeKeyId);
+			return new KeyRing(publicKeys, activeKeyId, activePrivateKey);
+		} catch(IOException | GeneralSecurityException e) {
+			throw new IllegalStateException("could not load the key ring from " + path, e);
+		}
+	}
+
+	/**
+	 * Creates a {@link KeyRing} holding a single, newly generated key pair. Tokens signed with it
+	 * become invalid once Gateway restarts.
+	 * @param algorithm The {@link SigningAlgorithm} to generate the key pair for.
+	 * @return an ephemeral {@link KeyRing}.
+	 */
+	public static KeyRing ephemeral(@NotNull SigningAlgorithm algorithm) {
+		log.info("No keystore configured, initializing ephemeral {} keypair", algorithm);
+		KeyPair keyPair = algorithm.generateKeyPair();
+		String keyId = UUID.randomUUID().toString();
+		return new KeyRing(Map.of(keyId, keyPair.getPublic()), keyId, keyPair.getPrivate());
+	}
+
+	/**
+	 * Returns the public key with the given key ID. Tokens issued before key IDs were stamped
+	 * carry none, and are checked against the active key.
+	 * @param keyId The key ID from the token header, or {@code null}.
+	 * @return the public key, or {@code null} if the key ID is unknown.
+	 */
+	public PublicKey getPublicKeyById(String keyId) {
+		return publicKeys.get(keyId == null ? activeKeyId : keyId);
+	}
+
+	/**
+	 * @return the private key of the active key pair.
+	 */
+	public PrivateKey getPrivateKey() {
+		return activePrivateKey;
+	}
+
+	/**
+	 * @return the key ID of the active key pair.
+	 */
+	public String getPrivateKeyId() {
+		return activeKeyId;
+	}
+
+	/**
+	 * @return the public key of the active key pair.
+	 */
+	public PublicKey getActivePublicKey() {
+		return publicKeys.get(activeKeyId);
+	}
+
+	/**
+	 * @return every public key in this ring, keyed by key ID.
+	 */
+	public Map<String, PublicKey> getPublicKeys() {
+		return publicKeys;
+	}
+
+}
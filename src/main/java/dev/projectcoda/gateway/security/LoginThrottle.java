@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import dev.projectcoda.gateway.data.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Counts failed logins per username and per client address, so that credential stuffing is turned away
+ * before it costs a database query or a BCrypt comparison.
+ * <p>Failures are counted over a sliding window of {@link GatewayConfiguration#getLoginFailureWindow()} seconds,
+ * approximated by weighting the previous window's count by how much of it still overlaps. Once a username reaches
+ * {@link GatewayConfiguration#getLoginFailureLimit()} failures, or a client address reaches
+ * {@link GatewayConfiguration#getLoginFailureAddressLimit()} failures, its logins are blocked until enough of
+ * those failures slide out of the window. Every login {@linkplain #tryAttempt(String, String) counts as a failure}
+ * while its password is checked, so that concurrent logins are held to the limits too.</p>
+ * <p>The counters are held in a bounded cache of at most {@link GatewayConfiguration#getLoginThrottleSize()}
+ * entries, whose segments are locked independently of each other; counters that stay idle for two windows are
+ * evicted.</p>
+ * @author Gerard Sayson
+ */
+@Service
+public class LoginThrottle {
+
+	/**
+	 * The name under which logins blocked by this throttle are counted.
+	 */
+	public static final String METRIC_NAME = "gateway.login.throttled";
+
+	private static final String USERNAME_PREFIX = "user:";
+	private static final String ADDRESS_PREFIX = "addr:";
+
+	/**
+	 * The length of the sliding window over which failures are counted.
+	 */
+	@Getter private final Duration window;
+
+	private final long windowMillis;
+	private final int usernameLimit;
+	private final int addressLimit;
+	private final Cache<String, FailureWindow> failures;
+	private final Counter throttled;
+
+	/**
+	 * The {@link LoginThrottle} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @param registry The {@link MeterRegistry} to publish metrics to.
+	 */
+	public LoginThrottle(@Autowired GatewayConfiguration configuration, @Autowired MeterRegistry registry) {
+		this.window = Duration.ofSeconds(configuration.getLoginFailureWindow());
+		this.windowMillis = window.toMillis();
+		this.usernameLimit = configuration.getLoginFailureLimit();
+		this.addressLimit = configuration.getLoginFailureAddressLimit();
+		this.failures = CacheBuilder.newBuilder()
+				.maximumSize(configuration.getLoginThrottleSize())
+				.expireAfterAccess(window.multipliedBy(2))
+				.build();
+		this.throttled = Counter.builder(METRIC_NAME).description("Logins blocked after too many failures").register(registry);
+	}
+
+	/**
+	 * Reserves a login attempt for the given username and client address. The attempt counts as a failure from now
+	 * on, so that a burst of concurrent logins cannot get past the limits while their passwords are checked, until it
+	 * {@linkplain Attempt#succeed() succeeds} or is {@linkplain Attempt#release() released}.
+	 * @param username The username being logged into.
+	 * @param address The address of the client.
+	 * @return the attempt, or {@code null} if logins for the username or from the address are blocked, in which case
+	 * the credentials should not be checked.
+	 */
+	public Attempt tryAttempt(@NotNull String username, @NotNull String address) {
+		long now = System.currentTimeMillis();
+		FailureWindow user = failures.asMap().computeIfAbsent(USERNAME_PREFIX + User.normalize(username), k -> new FailureWindow());
+		long userStart = user.tryRecord(now, windowMillis, usernameLimit);
+		if(userStart >= 0) {
+			FailureWindow client = failures.asMap().computeIfAbsent(ADDRESS_PREFIX + address, k -> new FailureWindow());
+			long clientStart = client.tryRecord(now, windowMillis, addressLimit);
+			if(clientStart >= 0) return new Attempt(username, user, userStart, client, clientStart);
+			user.release(userStart, now, windowMillis);
+		}
+		throttled.increment();
+		return null;
+	}
+
+	/**
+	 * Returns how long logins for the given username, or from the given client address, stay blocked, i.e. until
+	 * enough of their counted failures slide out of the window.
+	 * @param username The username being logged into.
+	 * @param address The address of the client.
+	 * @return how long until a login may be attempted again, or {@link Duration#ZERO} if it may be now.
+	 */
+	public Duration getRetryAfter(@NotNull String username, @NotNull String address) {
+		long now = System.currentTimeMillis();
+		return Duration.ofMillis(Math.max(
+				untilBelow(USERNAME_PREFIX + User.normalize(username), usernameLimit, now),
+				untilBelow(ADDRESS_PREFIX + address, addressLimit, now)
+		));
+	}
+
+	private long untilBelow(String key, int limit, long now) {
+		FailureWindow failures = this.failures.getIfPresent(key);
+		return failures == null ? 0 : failures.untilBelow(now, windowMillis, limit);
+	}
+
+	/**
+	 * A login attempt reserved by {@link #tryAttempt(String, String)}, which stays counted as a failure unless it
+	 * succeeds or is released. Only the first of these counts.
+	 */
+	public final class Attempt {
+
+		private final String username;
+		private final FailureWindow user;
+		private final long userStart;
+		private final FailureWindow client;
+		private final long clientStart;
+		private final AtomicBoolean settled = new AtomicBoolean();
+
+		private Attempt(String username, FailureWindow user, long userStart, FailureWindow client, long clientStart) {
+			this.username = username;
+			this.user = user;
+			this.userStart = userStart;
+			this.client = client;
+			this.clientStart = clientStart;
+		}
+
+		/**
+		 * Records that the credentials were correct. This clears the failures of the username, but the failures of
+		 * the client address are kept, so that one valid account cannot be used to reset the counter of an address
+		 * that guesses others.
+		 */
+		public void succeed() {
+			if(!settled.compareAndSet(false, true)) return;
+			client.release(clientStart, System.currentTimeMillis(), windowMillis);
+			failures.invalidate(USERNAME_PREFIX + User.normalize(username));
+		}
+
+		/**
+		 * Gives back the attempt without counting it either way, e.g. because the credentials could not be checked.
+		 */
+		public void release() {
+			if(!settled.compareAndSet(false, true)) return;
+			long now = System.currentTimeMillis();
+			user.release(userStart, now, windowMillis);
+			client.release(clientStart, now, windowMillis);
+		}
+
+	}
+
+	/**
+	 * The failures of one key in the current and previous fixed windows.
+	 * <p>Each instance is only contended by logins for the same key, so it simply synchronizes.</p>
+	 */
+	private static final class FailureWindow {
+
+		private long start;
+		private int current;
+		private int previous;
+
+		/**
+		 * Records a failure, unless the limit has already been reached.
+		 * @return the start of the window the failure was recorded in, or {@code -1} if it was not.
+		 */
+		synchronized long tryRecord(long now, long window, int limit) {
+			roll(now, window);
+			if(count(now, window) >= limit) return -1;
+			current++;
+			return start;
+		}
+
+		/**
+		 * Takes back a failure recorded in the window starting at the given time, if it is still counted.
+		 */
+		synchronized void release(long recorded, long now, long window) {
+			roll(now, window);
+			if(recorded == start) current--;
+			else if(recorded == start - window && previous > 0) previous--;
+		}
+
+		/**
+		 * @return the milliseconds until the count drops below the limit, assuming no more failures are recorded.
+		 */
+		synchronized long untilBelow(long now, long window, int limit) {
+			roll(now, window);
+			if(count(now, window) < limit) return 0;
+			long elapsed = now - start;
+			// the weight of the previous window's failures falls linearly to zero over the current window.
+			if(current < limit) return (long) Math.ceil(window * (1.0 - (double) (limit - current) / previous)) - elapsed + 1;
+			// the current failures have to become the previous window's first.
+			return window - elapsed + (long) Math.ceil(window * (1.0 - (double) limit / current)) + 1;
+		}
+
+		private double count(long now, long window) {
+			double overlap = 1.0 - (double) (now - start) / window;
+			return current + previous * overlap;
+		}
+
+		private void roll(long now, long window) {
+			long start = now - now % window;
+			if(start == this.start) return;
+			previous = start - this.start == window ? current : 0;
+			current = 0;
+			this.start = start;
+		}
+
+	}
+
+}
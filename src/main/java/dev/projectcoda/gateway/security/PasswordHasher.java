@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import dev.projectcoda.gateway.conf.ExecutorConfiguration;
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import dev.projectcoda.gateway.data.User;
+import dev.projectcoda.gateway.data.UserCredentials;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hashes and checks passwords with BCrypt on the {@linkplain ExecutorConfiguration#HASHING_EXECUTOR password hashing
+ * executor}, so that BCrypt does not tie up request threads.
+ * <p>New hashes are made with {@link GatewayConfiguration#getBcryptCost()}, or with the cost calibrated on startup
+ * for {@link GatewayConfiguration#getBcryptTargetMillis()}. Hashes made with a lower cost still match, and are
+ * upgraded through {@link #rehashIfOutdated(UserCredentials, String)}.</p>
+ * <p>When the executor is saturated, the methods of this class throw a {@link RejectedExecutionException} right away
+ * instead of queueing more work.</p>
+ * @author Gerard Sayson
+ */
+@Slf4j
+@Service
+public class PasswordHasher {
+
+	/**
+	 * The name under which the time taken to hash or check a password is published, tagged by operation.
+	 */
+	public static final String METRIC_NAME = "gateway.hashing.latency";
+
+	private static final int MIN_COST = 4;
+	private static final int MAX_COST = 31;
+
+	/**
+	 * The BCrypt cost factor that new hashes are made with.
+	 */
+	@Getter private final int cost;
+
+	private final BCryptPasswordEncoder encoder;
+	private final ExecutorService executor;
+	private final ExecutorService ioExecutor;
+	private final MongoTemplate mongoTemplate;
+	private final Timer encodeTimer;
+	private final Timer matchTimer;
+
+	/**
+	 * The {@link PasswordHasher} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @param executor The executor to hash passwords on.
+	 * @param ioExecutor The executor to store upgraded hashes on.
+	 * @param mongoTemplate The {@link MongoTemplate} used to store upgraded hashes.
+	 * @param registry The {@link MeterRegistry} to publish hashing latency to.
+	 */
+	public PasswordHasher(@Autowired GatewayConfiguration configuration, @Autowired @Qualifier(ExecutorConfiguration.HASHING_EXECUTOR) ExecutorService executor, @Autowired @Qualifier(ExecutorConfiguration.IO_EXECUTOR) ExecutorService ioExecutor, @Autowired MongoTemplate mongoTemplate, @Autowired MeterRegistry registry) {
+		this.cost = configuration.getBcryptTargetMillis() > 0
+				? calibrate(configuration.getBcryptCost(), Duration.ofMillis(configuration.getBcryptTargetMillis()))
+				: configuration.getBcryptCost();
+		this.encoder = new BCryptPasswordEncoder(cost);
+		this.executor = executor;
+		this.ioExecutor = ioExecutor;
+		this.mongoTemplate = mongoTemplate;
+		this.encodeTimer = Timer.builder(METRIC_NAME).description("Time taken to hash or check a password").tag("operation", "encode").register(registry);
+		this.matchTimer = Timer.builder(METRIC_NAME).description("Time taken to hash or check a password").tag("operation", "match").register(registry);
+	}
+
+	/**
+	 * Encodes a password using the BCrypt scheme.
+	 * @param password The password to encode.
+	 * @return the encoded password, once it has been computed.
+	 * @throws RejectedExecutionException if the hashing executor is saturated.
+	 */
+	public CompletableFuture<String> encode(@NotBlank String password) {
+		return CompletableFuture.supplyAsync(() -> encodeTimer.record(() -> encoder.encode(password)), executor);
+	}
+
+	/**
+	 * Checks whether the given raw password and the BCrypt-encoded password match.
+	 * @param password The raw password to compare.
+	 * @param encoded The {@linkplain #encode(String) encoded} password.
+	 * @return whether the two values match, once it has been computed.
+	 * @throws RejectedExecutionException if the hashing executor is saturated.
+	 */
+	public CompletableFuture<Boolean> matches(@NotBlank String password, @NotBlank String encoded) {
+		return CompletableFuture.supplyAsync(() -> matchTimer.record(() -> encoder.matches(password, encoded)), executor);
+	}
+
+	/**
+	 * Rehashes the password of a user in the background if it was hashed with a lower cost than {@link #getCost()}.
+	 * This is to be called once the password has been checked, as it is the only time the raw password is known.
+	 * <p>The new hash is stored on the {@linkplain ExecutorConfiguration#IO_EXECUTOR blocking I/O executor}, so that
+	 * hashing threads only ever hash, and only replaces the old one if the password has not changed in the meantime.
+	 * If either executor is saturated, nothing is done, and the next login tries again.</p>
+	 * @param user The credentials of the user whose password was checked.
+	 * @param password The raw password, which matches the user's.
+	 */
+	public void rehashIfOutdated(@NotNull UserCredentials user, @NotBlank String password) {
+		if(!encoder.upgradeEncoding(user.getPassword())) return;
+		try {
+			encode(password).thenAcceptAsync(encoded -> mongoTemplate.updateFirst(
+					Query.query(Criteria.where("uuid").is(user.getUuid()).and("password").is(user.getPassword())),
+					Update.update("password", encoded),
+					User.class
+			), ioExecutor).exceptionally(e -> {
+				log.warn("Could not rehash the password of user {}", user.getUuid(), e);
+				return null;
+			});
+		} catch(RejectedExecutionException e) {
+			log.debug("Hashing executor saturated, not rehashing the password of user {}", user.getUuid());
+		}
+	}
+
+	/**
+	 * Finds the highest BCrypt cost whose hash takes at most the given time on this host.
+	 * Each cost takes twice as long as the one below it, so this stops as soon as the next cost would not fit.
+	 * @param minimum The lowest cost to return, even if it takes longer than the target.
+	 * @param target The target time to hash a password.
+	 * @return the calibrated cost.
+	 */
+	private static int calibrate(int minimum, Duration target) {
+		String sample = "calibration-" + System.nanoTime();
+		new BCryptPasswordEncoder(MIN_COST).encode(sample); // warm up
+		int cost = minimum;
+		long elapsed = time(cost, sample);
+		while(cost < MAX_COST && elapsed * 2 <= target.toNanos()) {
+			elapsed = time(++cost, sample);
+		}
+		if(elapsed > target.toNanos() && cost > minimum) {
+			// the measured hash ran over, e.g. due to noise; settle for the previous cost.
+			cost--;
+		}
+		log.info("Calibrated BCrypt cost {} for a target of {} ms", cost, target.toMillis());
+		return cost;
+	}
+
+	private static long time(int cost, String sample) {
+		long start = System.nanoTime();
+		new BCryptPasswordEncoder(cost).encode(sample);
+		return System.nanoTime() - start;
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.interfaces.Claim;
+import lombok.Getter;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+import java.util.*;
+
+/**
+ * The {@link Permissions} as bit flags, so that a set of permissions is a single {@code int} and checking
+ * for a permission is a single bit operation.
+ * <p>Permissions are either <em>direct</em>, i.e. exactly the ones granted to a user, or <em>effective</em>,
+ * which also includes every permission implied through the {@code ADMIN > MODERATOR > USER} hierarchy.
+ * The effective mask of every possible direct mask is precomputed.</p>
+ * <p>The bits are written into tokens when {@link dev.projectcoda.gateway.conf.GatewayConfiguration#isCompactPermissions()
+ * compact permissions} are enabled, so they must never be reassigned.</p>
+ * @author Gerard Sayson
+ */
+@Getter
+public enum Permission {
+
+	USER(Permissions.USER, 0),
+	MODERATOR(Permissions.MODERATOR, 1, USER),
+	ADMIN(Permissions.ADMIN, 2, MODERATOR);
+
+	private static final Permission[] VALUES = values();
+
+	// indexed by direct mask
+	private static final int[] EFFECTIVE_MASKS = new int[1 << VALUES.length];
+	private static final List<List<String>> NAMES = new ArrayList<>(1 << VALUES.length);
+
+	static {
+		for(int mask = 0; mask < EFFECTIVE_MASKS.length; mask++) {
+			List<String> names = new ArrayList<>();
+			for(Permission permission : VALUES) {
+				if((mask & permission.bit) != 0) {
+					EFFECTIVE_MASKS[mask] |= permission.mask;
+					names.add(permission.name);
+				}
+			}
+			NAMES.add(List.copyOf(names));
+		}
+	}
+
+	/**
+	 * The name of the permission, as listed in {@link Permissions}.
+	 */
+	private final String name;
+
+	/**
+	 * The bit of this permission.
+	 */
+	private final int bit;
+
+	/**
+	 * The bits of this permission and every permission it implies.
+	 */
+	private final int mask;
+
+	/**
+	 * The names of this permission and every permission it implies.
+	 */
+	private final Set<String> implied;
+
+	Permission(String name, int index, Permission... implies) {
+		this.name = name;
+		this.bit = 1 << index;
+		int mask = bit;
+		Set<String> implied = new HashSet<>();
+		implied.add(name);
+		for(Permission permission : implies) {
+			mask |= permission.mask;
+			implied.addAll(permission.implied);
+		}
+		this.mask = mask;
+		this.implied = Set.copyOf(implied);
+	}
+
+	/**
+	 * Checks whether this permission is in the given mask.
+	 * @param mask A direct or effective mask.
+	 * @return whether the bit of this permission is set.
+	 */
+	public boolean in(int mask) {
+		return (mask & bit) != 0;
+	}
+
+	/**
+	 * Gets the {@link Permission} of the given name.
+	 * @param name A permission in {@link Permissions}.
+	 * @return the {@link Permission}, or {@code null} if the name is not a known permission.
+	 */
+	@Nullable
+	public static Permission of(String name) {
+		if(name == null) return null;
+		return switch(name) {
+			case Permissions.ADMIN -> ADMIN;
+			case Permissions.MODERATOR -> MODERATOR;
+			case Permissions.USER -> USER;
+			default -> null;
+		};
+	}
+
+	/**
+	 * Computes the direct mask of the given permission names. Unknown names are ignored.
+	 * @param names Permissions in {@link Permissions}.
+	 * @return the direct mask.
+	 */
+	public static int mask(@NotNull Collection<String> names) {
+		int mask = 0;
+		for(String name : names) {
+			Permission permission = of(name);
+			if(permission != null) mask |= permission.bit;
+		}
+		return mask;
+	}
+
+	/**
+	 * Computes the direct mask of a token's {@code permissions} claim, which is either a list of names or,
+	 * for compact tokens, a direct mask.
+	 * @param claim The {@code permissions} claim.
+	 * @return the direct mask, or zero if the claim is missing or malformed.
+	 */
+	public static int mask(@NotNull Claim claim) {
+		Integer compact = claim.asInt();
+		if(compact != null) return compact & (EFFECTIVE_MASKS.length - 1);
+		List<String> names = claim.asList(String.class);
+		return names == null ? 0 : mask(names);
+	}
+
+	/**
+	 * Gets the permission names of a token's {@code permissions} claim, which is either a list of names or,
+	 * for compact tokens, a direct mask.
+	 * @param claim The {@code permissions} claim.
+	 * @return the permission names, or an empty list if the claim is missing or malformed.
+	 */
+	public static List<String> names(@NotNull Claim claim) {
+		List<String> names = claim.asList(String.class);
+		return names != null ? names : names(mask(claim));
+	}
+
+	/**
+	 * Expands a direct mask with every permission implied through the hierarchy.
+	 * @param mask A direct mask.
+	 * @return the effective mask.
+	 */
+	public static int effective(int mask) {
+		return EFFECTIVE_MASKS[mask & (EFFECTIVE_MASKS.length - 1)];
+	}
+
+	/**
+	 * Gets the names of the permissions in the given mask.
+	 * @param mask A direct or effective mask.
+	 * @return an immutable list of the permission names, from lowest to highest.
+	 */
+	public static List<String> names(int mask) {
+		return NAMES.get(mask & (EFFECTIVE_MASKS.length - 1));
+	}
+
+}
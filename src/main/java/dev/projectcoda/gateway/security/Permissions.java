@@ -14,6 +14,7 @@ import java.util.Set;
  *     <li><b>{@link #MODERATOR dev.projectcoda.gateway.moderator}</b> - Has {@link #USER} permissions, and can mute, kick or ban {@link #USER}s.</li>
  *     <li><b>{@link #USER dev.projectcoda.gateway.user}</b> - Can use authenticated services (such as matchmaking and rooms) on Project Coda.</li>
  * </ul>
+ * <p>For bit operations on sets of permissions, see {@link Permission}.</p>
  * @author Gerard Sayson
  */
 public interface Permissions {
@@ -49,16 +50,13 @@ public interface Permissions {
 	 * directly and indirectly.
 	 * @param permission A permission in {@link Permissions}.
 	 * @return all the permissions that the given permission itself directly or indirectly
-	 * has.
+	 * has. This set is precomputed, and is immutable.
 	 */
 	@SuppressWarnings("unused")
 	static Set<String> permissions(String permission) {
-		return switch(permission) {
-			case ADMIN -> Set.of(ADMIN, MODERATOR, USER);
-			case MODERATOR -> Set.of(MODERATOR, USER);
-			case USER -> Set.of(USER);
-			default -> throw new IllegalArgumentException("given value is not listed in Permissions");
-		};
+		Permission p = Permission.of(permission);
+		if(p == null) throw new IllegalArgumentException("given value is not listed in Permissions");
+		return p.getImplied();
 	}
 
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import dev.projectcoda.gateway.data.RefreshFamily;
+import dev.projectcoda.gateway.data.RefreshFamilyRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Tracks refresh token families when {@link GatewayConfiguration#isRefreshRotation() refresh token rotation} is enabled.
+ * <p>Rotating a refresh token is a single conditional update of its family by ID, which only succeeds while the
+ * token is still the family's head. If it is not, the token has been used before, so it (or its successor) is
+ * assumed stolen and the whole family is invalidated. Each node remembers the families it has invalidated, so that
+ * replayed tokens of those families are rejected without a database round trip.</p>
+ * <p>Retired tokens, and the head of an invalidated family, are also revoked through the {@link RevocationList}, so
+ * that they are no longer accepted anywhere else either, such as by {@code /gateway/valid} or on authenticated
+ * endpoints. Other nodes pick such revocations up within {@link GatewayConfiguration#getRevocationPollInterval()}
+ * seconds.</p>
+ * @author Gerard Sayson
+ */
+@Slf4j
+@Service
+public class RefreshFamilies {
+
+	private static final int INVALIDATED_CACHE_SIZE = 10000;
+
+	private final RefreshFamilyRepository repository;
+	private final MongoTemplate mongoTemplate;
+	private final RevocationList revocationList;
+	private final Cache<String, Boolean> invalidated;
+
+	private volatile boolean indexed;
+
+	/**
+	 * The {@link RefreshFamilies} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param repository The {@link RefreshFamilyRepository} that stores families.
+	 * @param mongoTemplate The {@link MongoTemplate} used to rotate families atomically.
+	 * @param revocationList The {@link RevocationList} that retired refresh tokens are revoked through.
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 */
+	public RefreshFamilies(@Autowired RefreshFamilyRepository repository, @Autowired MongoTemplate mongoTemplate, @Autowired RevocationList revocationList, @Autowired GatewayConfiguration configuration) {
+		this.repository = repository;
+		this.mongoTemplate = mongoTemplate;
+		this.revocationList = revocationList;
+		this.invalidated = CacheBuilder.newBuilder()
+				.maximumSize(INVALIDATED_CACHE_SIZE)
+				.expireAfterWrite(Duration.ofDays(configuration.getRefreshExpiration()))
+				.build();
+	}
+
+	/**
+	 * Starts a new family, headed by the given refresh token.
+	 * @param user The UUID of the user the family belongs to.
+	 * @param head The token ID of the family's first refresh token.
+	 * @param expiresAt When the family's refresh tokens expire.
+	 * @return the ID of the new family.
+	 */
+	public String start(@NotNull UUID user, @NotBlank String head, @NotNull Instant expiresAt) {
+		if(!indexed) {
+			mongoTemplate.indexOps(RefreshFamily.class).ensureIndex(new Index("expiresAt", Sort.Direction.ASC).expire(Duration.ZERO));
+			indexed = true;
+		}
+		String id = UUID.randomUUID().toString();
+		repository.save(new RefreshFamily(id, user, head, expiresAt));
+		return id;
+	}
+
+	/**
+	 * Moves the head of a family from the given refresh token to its successor, and revokes the given token. If the
+	 * given token is not the head, the family is invalidated, and its head is revoked.
+	 * @param family The ID of the family.
+	 * @param head The token ID of the refresh token being used.
+	 * @param next The token ID of its successor.
+	 * @return whether the family was rotated; if not, no refresh token of the family can be used anymore.
+	 */
+	public boolean rotate(@NotBlank String family, @NotBlank String head, @NotBlank String next) {
+		if(invalidated.getIfPresent(family) != null) return false;
+		Query query = Query.query(Criteria.where("_id").is(family).and("head").is(head).and("expiresAt").gt(Instant.now()));
+		RefreshFamily rotated = mongoTemplate.findAndModify(query, Update.update("head", next), RefreshFamily.class);
+		if(rotated != null) {
+			revocationList.revokeToken(head, rotated.getExpiresAt());
+			return true;
+		}
+		log.info("Refresh token {} of family {} was reused, invalidating the family", head, family);
+		invalidate(family);
+		return false;
+	}
+
+	/**
+	 * Invalidates a family, so that none of its refresh tokens can be used anymore, and revokes its head.
+	 * @param family The ID of the family.
+	 */
+	public void invalidate(@NotBlank String family) {
+		RefreshFamily removed = mongoTemplate.findAndRemove(Query.query(Criteria.where("_id").is(family)), RefreshFamily.class);
+		// the other tokens of the family were revoked as they were retired.
+		if(removed != null) revocationList.revokeToken(removed.getHead(), removed.getExpiresAt());
+		invalidated.put(family, Boolean.TRUE);
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import dev.projectcoda.gateway.data.Revocation;
+import dev.projectcoda.gateway.data.RevocationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.validation.constraints.NotNull;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The list of revoked tokens, stored in the {@code revocations} collection and mirrored on every Gateway node.
+ * <p>Each node holds a Bloom filter in front of an exact map of the revocations in effect, so that checking a token
+ * costs no database round trip, and almost always just two Bloom filter probes. Revocations made by other nodes are
+ * picked up every {@link GatewayConfiguration#getRevocationPollInterval()} seconds, and the whole list is reloaded
+ * every hour to drop expired revocations from the filter.</p>
+ * <p>Until the list is first loaded (e.g. while the database is unreachable), only revocations made by this node
+ * are known.</p>
+ * @author Gerard Sayson
+ */
+@Slf4j
+@Service
+public class RevocationList {
+
+	/**
+	 * The name under which the number of revocations in effect is published.
+	 */
+	public static final String METRIC_NAME = "gateway.revocations.size";
+
+	private static final Duration FULL_RELOAD_INTERVAL = Duration.ofHours(1);
+
+	// Nodes' clocks differ; re-reading a short window tolerates revocations stamped slightly in the past.
+	private static final Duration POLL_OVERLAP = Duration.ofMinutes(1);
+
+	private final RevocationRepository repository;
+	private final MongoTemplate mongoTemplate;
+	private final GatewayConfiguration configuration;
+
+	private volatile State state;
+	private volatile Instant watermark = Instant.EPOCH;
+	private volatile Instant lastReload;
+	private volatile boolean indexed;
+
+	/**
+	 * The {@link RevocationList} constructor.
+	 * <p>Spring will instantiate this class, so there is no need to do it yourself.</p>
+	 * @param repository The {@link RevocationRepository} that stores revocations.
+	 * @param mongoTemplate The {@link MongoTemplate} used to create the collection's indexes.
+	 * @param configuration The {@link GatewayConfiguration} to use.
+	 * @param registry The {@link MeterRegistry} to publish metrics to.
+	 */
+	public RevocationList(@Autowired RevocationRepository repository, @Autowired MongoTemplate mongoTemplate, @Autowired GatewayConfiguration configuration, @Autowired MeterRegistry registry) {
+		this.repository = repository;
+		this.mongoTemplate = mongoTemplate;
+		this.configuration = configuration;
+		this.state = new State(configuration.getRevocationFilterSize());
+		registry.gauge(METRIC_NAME, this, list -> list.state.entries.size());
+	}
+
+	/**
+	 * Checks whether the given token has been revoked, either by its token ID or through its user.
+	 * Tokens that carry no issued-at claim are revoked by any revocation of their user.
+	 * <p>Issued-at claims are in whole seconds, so a token issued in the same second as a revocation of its user
+	 * cannot be told apart from one issued just before it. Such tokens are not revoked, so that logging in again
+	 * right after revoking works; a token issued less than a second before the revocation may thus outlive it.</p>
+	 * @param jwt A verified token.
+	 * @return whether the token is revoked.
+	 */
+	public boolean isRevoked(@NotNull DecodedJWT jwt) {
+		State state = this.state;
+		if(jwt.getId() != null && state.get(Revocation.TOKEN_PREFIX + jwt.getId()) != null) return true;
+		Instant revokedAt = state.get(Revocation.USER_PREFIX + jwt.getSubject());
+		if(revokedAt == null) return false;
+		Instant issuedAt = jwt.getIssuedAtAsInstant();
+		return issuedAt == null || issuedAt.isBefore(revokedAt);
+	}
+
+	/**
+	 * Revokes a single token by its token ID.
+	 * @param jwt A verified token.
+	 * @return whether the token could be revoked; tokens without a token ID cannot.
+	 */
+	public boolean revokeToken(@NotNull DecodedJWT jwt) {
+		if(jwt.getId() == null || jwt.getExpiresAtAsInstant() == null) return false;
+		revokeToken(jwt.getId(), jwt.getExpiresAtAsInstant());
+		return true;
+	}
+
+	/**
+	 * Revokes a single token by its token ID, without the token at hand.
+	 * @param id The token ID.
+	 * @param expiresAt When the token expires, after which the revocation can be forgotten.
+	 */
+	public void revokeToken(@NotNull String id, @NotNull Instant expiresAt) {
+		save(new Revocation(Revocation.TOKEN_PREFIX + id, Instant.now().truncatedTo(ChronoUnit.SECONDS), expiresAt));
+	}
+
+	/**
+	 * Revokes every token issued to the given user before the current second.
+	 * @param uuid The UUID of the user.
+	 */
+	public void revokeUser(@NotNull UUID uuid) {
+		Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+		// no token issued up to now outlives a refresh token issued now.
+		save(new Revocation(Revocation.USER_PREFIX + uuid, now, now.plus(configuration.getRefreshExpiration(), ChronoUnit.DAYS)));
+	}
+
+	private void save(Revocation revocation) {
+		repository.save(revocation);
+		state.add(revocation);
+	}
+
+	/**
+	 * Picks up revocations made by other nodes, and periodically reloads the whole list.
+	 * <p>This is called by Spring's scheduler.</p>
+	 */
+	@Scheduled(fixedDelayString = "${coda.revocation-poll-interval:10}", timeUnit = TimeUnit.SECONDS)
+	public void refresh() {
+		try {
+			Instant now = Instant.now();
+			if(lastReload == null || now.isAfter(lastReload.plus(FULL_RELOAD_INTERVAL))) {
+				reload(now);
+			} else {
+				addAll(state, repository.findByRevokedAtGreaterThanEqual(watermark.minus(POLL_OVERLAP)));
+			}
+		} catch(RuntimeException e) {
+			log.warn("Could not refresh the revocation list", e);
+		}
+	}
+
+	private void reload(Instant now) {
+		if(!indexed) {
+			mongoTemplate.indexOps(Revocation.class).ensureIndex(new Index("expiresAt", Sort.Direction.ASC).expire(Duration.ZERO));
+			mongoTemplate.indexOps(Revocation.class).ensureIndex(new Index("revokedAt", Sort.Direction.ASC));
+			indexed = true;
+		}
+		State reloaded = new State(configuration.getRevocationFilterSize());
+		addAll(reloaded, repository.findByExpiresAtAfter(now));
+		// carry over revocations made on this node while reloading, so that they stay in effect.
+		State previous = state;
+		state = reloaded;
+		addAll(reloaded, previous.recent(now.minus(POLL_OVERLAP)));
+		lastReload = now;
+		log.info("Loaded {} token revocation(s)", reloaded.entries.size());
+	}
+
+	private void addAll(State state, Collection<Revocation> revocations) {
+		Instant latest = watermark;
+		for(Revocation revocation : revocations) {
+			state.add(revocation);
+			if(revocation.getRevokedAt().isAfter(latest)) latest = revocation.getRevokedAt();
+		}
+		watermark = latest;
+	}
+
+	/**
+	 * A Bloom filter of revocation IDs in front of an exact map of them.
+	 */
+	private static final class State {
+
+		private final BloomFilter<CharSequence> filter;
+		private final Map<String, Revocation> entries = new ConcurrentHashMap<>();
+
+		State(int expectedEntries) {
+			this.filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedEntries, 0.001);
+		}
+
+		void add(Revocation revocation) {
+			// merge rather than put, so that a stale copy never replaces a later revocation of the same user.
+			entries.merge(revocation.getId(), revocation, (a, b) -> a.getRevokedAt().isAfter(b.getRevokedAt()) ? a : b);
+			filter.put(revocation.getId());
+		}
+
+		/**
+		 * @return when the given ID was revoked, or {@code null} if it is not revoked.
+		 */
+		Instant get(String id) {
+			if(!filter.mightContain(id)) return null;
+			Revocation revocation = entries.get(id);
+			return revocation == null ? null : revocation.getRevokedAt();
+		}
+
+		List<Revocation> recent(Instant since) {
+			return entries.values().stream().filter(r -> !r.getRevokedAt().isBefore(since)).toList();
+		}
+
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.ECDSAKeyProvider;
+import lombok.Getter;
+import lombok.Lombok;
+
+import javax.validation.constraints.NotNull;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.EdECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.NamedParameterSpec;
+
+/**
+ * The JWT signature algorithms that Gateway can sign and verify tokens with. The algorithm is chosen through
+ * {@link dev.projectcoda.gateway.conf.GatewayConfiguration#getAlgorithm()}, and every key in the {@link KeyRing}
+ * must belong to it.
+ * <ul>
+ *     <li><b>{@link #ES256}</b> - ECDSA over P-256 with SHA-256.</li>
+ *     <li><b>{@link #ES384}</b> - ECDSA over P-384 with SHA-384.</li>
+ *     <li><b>{@link #ES512}</b> - ECDSA over P-521 with SHA-512. This is the default.</li>
+ *     <li><b>{@link #ED25519}</b> - EdDSA over Curve25519 (the {@code EdDSA} JWT algorithm).</li>
+ * </ul>
+ * @author Gerard Sayson
+ */
+@Getter
+public enum SigningAlgorithm {
+
+	ES256("EC", "secp256r1", 256),
+	ES384("EC", "secp384r1", 384),
+	ES512("EC", "secp521r1", 521),
+	ED25519("Ed25519", "Ed25519", 255);
+
+	/**
+	 * The JCA key algorithm of the keys used by this algorithm.
+	 */
+	private final String keyAlgorithm;
+
+	/**
+	 * The JCA name of the curve of the keys used by this algorithm.
+	 */
+	private final String curve;
+
+	/**
+	 * The field size, in bits, of the curve of the keys used by this algorithm.
+	 */
+	private final int fieldSize;
+
+	SigningAlgorithm(String keyAlgorithm, String curve, int fieldSize) {
+		this.keyAlgorithm = keyAlgorithm;
+		this.curve = curve;
+		this.fieldSize = fieldSize;
+	}
+
+	/**
+	 * Generates a new key pair for this algorithm.
+	 * @return a new {@link KeyPair}.
+	 */
+	public KeyPair generateKeyPair() {
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm);
+			generator.initialize(this == ED25519 ? new NamedParameterSpec(curve) : new ECGenParameterSpec(curve));
+			return generator.generateKeyPair();
+		} catch(GeneralSecurityException e) {
+			throw Lombok.sneakyThrow(e);
+		}
+	}
+
+	/**
+	 * Checks whether the given public key can be used with this algorithm.
+	 * @param key The public key to check.
+	 * @return whether the key is on the curve of this algorithm.
+	 */
+	public boolean accepts(PublicKey key) {
+		if(this == ED25519) {
+			return key instanceof EdECPublicKey edKey && curve.equalsIgnoreCase(edKey.getParams().getName());
+		}
+		return key instanceof ECPublicKey ecKey && ecKey.getParams().getCurve().getField().getFieldSize() == fieldSize;
+	}
+
+	/**
+	 * Creates the JavaJWT {@link Algorithm} that signs with the active key of the given {@link KeyRing},
+	 * and verifies with the key named by a token's {@code kid} header.
+	 * @param keyRing The {@link KeyRing} to use.
+	 * @return an {@link Algorithm}.
+	 */
+	public Algorithm create(@NotNull KeyRing keyRing) {
+		if(this == ED25519) return new EdDSAAlgorithm(keyRing);
+		ECDSAKeyProvider provider = new ECDSAKeyProvider() {
+			@Override
+			public ECPublicKey getPublicKeyById(String keyId) {
+				return (ECPublicKey) keyRing.getPublicKeyById(keyId);
+			}
+
+			@Override
+			public ECPrivateKey getPrivateKey() {
+				return (ECPrivateKey) keyRing.getPrivateKey();
+			}
+
+			@Override
+			public String getPrivateKeyId() {
+				return keyRing.getPrivateKeyId();
+			}
+		};
+		return switch(this) {
+			case ES256 -> Algorithm.ECDSA256(provider);
+			case ES384 -> Algorithm.ECDSA384(provider);
+			default -> Algorithm.ECDSA512(provider);
+		};
+	}
+
+}
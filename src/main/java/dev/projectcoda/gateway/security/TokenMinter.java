@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.algorithms.Algorithm;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+/**
+ * Mints Gateway tokens without going through {@link JWT#create()} for every token.
+ * <p>The header never changes for a given signing key, so it is encoded once. The payload is written directly from
+ * precomputed fragments, and only the token ID, subject, refresh token family, issue and expiry times, and permissions (as names or as a
+ * compact {@link Permission} mask) are encoded per token. The output is identical,
+ * byte for byte, to what {@link JWT#create()} produces for the same claims; this is checked once on construction, and
+ * if it does not hold (e.g. a JavaJWT upgrade changes its claim order), every token is minted through
+ * {@link JWT#create()} instead.</p>
+ * <p>This is for internal use only, in {@link AuthorizationService}.</p>
+ * @author Gerard Sayson
+ */
+@Slf4j
+final class TokenMinter {
+
+	private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+	// JavaJWT writes claims in this order; see the compatibility check in the constructor.
+	private static final String PAYLOAD_SUBJECT = "{\"aud\":\"" + AuthorizationService.AUDIENCE + "\",\"sub\":\"";
+	private static final String PAYLOAD_FAMILY = "\",\"fam\":\"";
+	private static final String PAYLOAD_PERMISSIONS = "\",\"permissions\":";
+	private static final String PAYLOAD_EXPIRY = ",\"iss\":\"" + AuthorizationService.ISSUER + "\",\"exp\":";
+	private static final String PAYLOAD_ISSUED_AT = ",\"iat\":";
+	private static final String PAYLOAD_ID = ",\"jti\":\"";
+	private static final String PAYLOAD_REFRESH = "\",\"refreshToken\":true}";
+	private static final String PAYLOAD_REGULAR = "\",\"refreshToken\":false}";
+
+	private final Algorithm algorithm;
+	private final String header;
+	private final byte[] headerBytes;
+	private final boolean fastPath;
+
+	/**
+	 * Creates a new {@link TokenMinter} for the given algorithm, and by extension its active signing key.
+	 * @param algorithm The {@link Algorithm} to sign tokens with.
+	 */
+	TokenMinter(@NotNull Algorithm algorithm) {
+		this.algorithm = algorithm;
+		Instant sampleIssuedAt = Instant.ofEpochSecond(Instant.now().getEpochSecond());
+		List<String> samplePermissions = List.of(Permissions.USER, Permissions.ADMIN);
+		String sampleId = UUID.randomUUID().toString();
+		String sampleSubject = UUID.randomUUID().toString();
+		String sampleFamily = UUID.randomUUID().toString();
+		String sample = legacy(sampleId, sampleSubject, null, sampleIssuedAt, sampleIssuedAt, b -> b.withClaim("permissions", samplePermissions), true);
+		String familySample = legacy(sampleId, sampleSubject, sampleFamily, sampleIssuedAt, sampleIssuedAt, b -> b.withClaim("permissions", samplePermissions), true);
+		this.header = sample.substring(0, sample.indexOf('.'));
+		this.headerBytes = header.getBytes(StandardCharsets.US_ASCII);
+		this.fastPath = unsigned(sample).equals(header + '.' + payload(sampleId, sampleSubject, null, sampleIssuedAt, sampleIssuedAt, json(samplePermissions), true))
+				&& unsigned(familySample).equals(header + '.' + payload(sampleId, sampleSubject, sampleFamily, sampleIssuedAt, sampleIssuedAt, json(samplePermissions), true));
+		if(!fastPath) {
+			log.warn("Precomputed token layout does not match JavaJWT, falling back to JWT.create() for every token");
+		}
+	}
+
+	/**
+	 * @return whether tokens are minted from the precomputed fragments, rather than through {@link JWT#create()}.
+	 */
+	boolean isFastPath() {
+		return fastPath;
+	}
+
+	/**
+	 * Mints a signed token.
+	 * @param id The token ID ({@code jti}) claim.
+	 * @param subject The subject claim.
+	 * @param family The refresh token family ({@code fam}) claim, or {@code null} to omit it.
+	 * @param issuedAt The issued-at claim. This is truncated to whole seconds.
+	 * @param expiresAt The expiry claim. This is truncated to whole seconds.
+	 * @param permissions The permissions claim.
+	 * @param refreshToken The refresh token claim.
+	 * @return the signed token.
+	 */
+	String mint(@NotNull String id, @NotNull String subject, @Nullable String family, @NotNull Instant issuedAt, @NotNull Instant expiresAt, @NotNull List<String> permissions, boolean refreshToken) {
+		if(!fastPath || needsEscaping(id) || needsEscaping(subject) || (family != null && needsEscaping(family)) || permissions.stream().anyMatch(TokenMinter::needsEscaping)) {
+			return legacy(id, subject, family, issuedAt, expiresAt, b -> b.withClaim("permissions", permissions), refreshToken);
+		}
+		return sign(payload(id, subject, family, issuedAt, expiresAt, json(permissions), refreshToken));
+	}
+
+	/**
+	 * Mints a signed token whose permissions claim is a compact {@link Permission} mask.
+	 * @param id The token ID ({@code jti}) claim.
+	 * @param subject The subject claim.
+	 * @param family The refresh token family ({@code fam}) claim, or {@code null} to omit it.
+	 * @param issuedAt The issued-at claim. This is truncated to whole seconds.
+	 * @param expiresAt The expiry claim. This is truncated to whole seconds.
+	 * @param permissions The direct {@link Permission} mask.
+	 * @param refreshToken The refresh token claim.
+	 * @return the signed token.
+	 */
+	String mint(@NotNull String id, @NotNull String subject, @Nullable String family, @NotNull Instant issuedAt, @NotNull Instant expiresAt, int permissions, boolean refreshToken) {
+		if(!fastPath || needsEscaping(id) || needsEscaping(subject) || (family != null && needsEscaping(family))) {
+			return legacy(id, subject, family, issuedAt, expiresAt, b -> b.withClaim("permissions", permissions), refreshToken);
+		}
+		return sign(payload(id, subject, family, issuedAt, expiresAt, Integer.toString(permissions), refreshToken));
+	}
+
+	/**
+	 * Signs the given payload under the precomputed header.
+	 * @param payload The Base64URL-encoded payload.
+	 * @return the signed token.
+	 */
+	private String sign(String payload) {
+		byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+		String signature = ENCODER.encodeToString(algorithm.sign(headerBytes, payloadBytes));
+		return new StringBuilder(header.length() + payload.length() + signature.length() + 2)
+				.append(header).append('.')
+				.append(payload).append('.')
+				.append(signature)
+				.toString();
+	}
+
+	/**
+	 * Encodes the payload of a token.
+	 * @param permissions The JSON value of the permissions claim.
+	 * @return the Base64URL-encoded payload.
+	 */
+	private static String payload(String id, String subject, String family, Instant issuedAt, Instant expiresAt, String permissions, boolean refreshToken) {
+		StringBuilder json = new StringBuilder(256).append(PAYLOAD_SUBJECT).append(subject);
+		if(family != null) json.append(PAYLOAD_FAMILY).append(family);
+		json.append(PAYLOAD_PERMISSIONS).append(permissions)
+				.append(PAYLOAD_EXPIRY).append(expiresAt.getEpochSecond())
+				.append(PAYLOAD_ISSUED_AT).append(issuedAt.getEpochSecond())
+				.append(PAYLOAD_ID).append(id)
+				.append(refreshToken ? PAYLOAD_REFRESH : PAYLOAD_REGULAR);
+		return ENCODER.encodeToString(json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the given permission names as a JSON array.
+	 */
+	private static String json(List<String> permissions) {
+		StringBuilder json = new StringBuilder(permissions.size() * 32 + 2).append('[');
+		for(int i = 0; i < permissions.size(); i++) {
+			if(i > 0) json.append(',');
+			json.append('"').append(permissions.get(i)).append('"');
+		}
+		return json.append(']').toString();
+	}
+
+	/**
+	 * Mints a token through {@link JWT#create()}.
+	 * @param permissions Adds the permissions claim to the builder.
+	 */
+	private String legacy(String id, String subject, String family, Instant issuedAt, Instant expiresAt, UnaryOperator<JWTCreator.Builder> permissions, boolean refreshToken) {
+		JWTCreator.Builder builder = JWT.create().withIssuer(AuthorizationService.ISSUER)
+				.withAudience(AuthorizationService.AUDIENCE)
+				.withJWTId(id)
+				.withIssuedAt(issuedAt)
+				.withExpiresAt(expiresAt)
+				.withSubject(subject);
+		if(family != null) builder.withClaim("fam", family);
+		return permissions.apply(builder)
+				.withClaim("refreshToken", refreshToken)
+				.sign(algorithm);
+	}
+
+	/**
+	 * @return the header and payload of the given token, without its signature.
+	 */
+	private static String unsigned(String token) {
+		return token.substring(0, token.lastIndexOf('.'));
+	}
+
+	/**
+	 * Checks whether the given string would be escaped in JSON, which the fast path does not do.
+	 */
+	private static boolean needsEscaping(String value) {
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c < 0x20 || c == '"' || c == '\\') return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+/**
+ * The outcome of {@link AuthorizationService#verifyToken(String)}: either a verified token, or the reason it was rejected.
+ * @param jwt The verified token, or {@code null} if it was rejected.
+ * @param rejection The reason the token was rejected, or {@code null} if it is valid.
+ * @author Gerard Sayson
+ */
+public record TokenVerification(@Nullable DecodedJWT jwt, @Nullable Rejection rejection) {
+
+	/**
+	 * The reasons a token can be rejected for, in the order they are checked.
+	 */
+	public enum Rejection {
+		/**
+		 * The token is missing, too long, or not a well-formed JWT.
+		 */
+		MALFORMED,
+		/**
+		 * The token was signed with a different algorithm than the one in use.
+		 */
+		ALGORITHM,
+		/**
+		 * The token was not issued by Gateway.
+		 */
+		ISSUER,
+		/**
+		 * The token is not meant for Project Coda.
+		 */
+		AUDIENCE,
+		/**
+		 * The token lacks a claim that every Gateway token has.
+		 */
+		CLAIMS,
+		/**
+		 * The token has expired.
+		 */
+		EXPIRED,
+		/**
+		 * The signature of the token is invalid, or was made with an unknown key.
+		 */
+		SIGNATURE,
+		/**
+		 * The token, or every token of its user, has been revoked.
+		 */
+		REVOKED
+	}
+
+	/**
+	 * Creates a {@link TokenVerification} for a valid token.
+	 * @param jwt The verified token.
+	 * @return a valid {@link TokenVerification}.
+	 */
+	public static TokenVerification valid(@NotNull DecodedJWT jwt) {
+		return new TokenVerification(jwt, null);
+	}
+
+	/**
+	 * Creates a {@link TokenVerification} for a rejected token.
+	 * @param rejection The reason the token was rejected.
+	 * @return a rejected {@link TokenVerification}.
+	 */
+	public static TokenVerification rejected(@NotNull Rejection rejection) {
+		return new TokenVerification(null, rejection);
+	}
+
+	/**
+	 * @return whether the token is valid.
+	 */
+	public boolean isValid() {
+		return jwt != null;
+	}
+
+}
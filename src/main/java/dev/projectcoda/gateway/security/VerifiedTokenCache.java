@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of JWT tokens that have already passed signature verification.
+ * <p>Entries are keyed by the SHA-256 digest of the raw token, so the cache never holds the tokens themselves
+ * as keys. An entry is only served while the token's {@code exp} claim lies in the future; afterwards it is
+ * evicted and the token goes through full verification again (which rejects it).</p>
+ * @author Gerard Sayson
+ */
+public final class VerifiedTokenCache {
+
+	/**
+	 * The name under which cache metrics are published.
+	 */
+	public static final String METRIC_NAME = "gateway.token.cache";
+
+	private final Cache<HashCode, DecodedJWT> cache;
+
+	/**
+	 * Creates a new {@link VerifiedTokenCache}.
+	 * @param maximumSize The maximum number of verified tokens to hold.
+	 * @param maximumAge The maximum time a verified token is held, regardless of its expiry.
+	 */
+	public VerifiedTokenCache(@Positive long maximumSize, @NotNull Duration maximumAge) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(maximumAge)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Returns the verified token for the given raw token, verifying it with the given function on a miss.
+	 * <p>Tokens that fail verification are never cached; the exception thrown by the verifier is propagated.</p>
+	 * @param token The raw JWT token.
+	 * @param verifier The function that fully verifies the token.
+	 * @return the {@link DecodedJWT} of the given token.
+	 */
+	public DecodedJWT get(@NotBlank String token, @NotNull Function<String, DecodedJWT> verifier) {
+		DecodedJWT jwt = getIfPresent(token);
+		if(jwt == null) {
+			jwt = verifier.apply(token);
+			put(token, jwt);
+		}
+		return jwt;
+	}
+
+	/**
+	 * Returns the verified token for the given raw token, if it is cached and not yet expired.
+	 * @param token The raw JWT token.
+	 * @return the {@link DecodedJWT} of the given token, or {@code null} if it is not cached.
+	 */
+	public DecodedJWT getIfPresent(@NotBlank String token) {
+		HashCode key = digest(token);
+		DecodedJWT jwt = cache.getIfPresent(key);
+		if(jwt != null && isExpired(jwt)) {
+			cache.invalidate(key);
+			return null;
+		}
+		return jwt;
+	}
+
+	/**
+	 * Caches a token that has passed full verification. Expired tokens are not cached.
+	 * @param token The raw JWT token.
+	 * @param jwt The verified {@link DecodedJWT} of the token.
+	 */
+	public void put(@NotBlank String token, @NotNull DecodedJWT jwt) {
+		if(!isExpired(jwt)) cache.put(digest(token), jwt);
+	}
+
+	/**
+	 * Removes the given token from the cache, if present.
+	 * @param token The raw JWT token.
+	 */
+	public void invalidate(@NotBlank String token) {
+		cache.invalidate(digest(token));
+	}
+
+	/**
+	 * Removes every token from the cache.
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Publishes the size, hit and miss counts of this cache to the given registry.
+	 * @param registry The {@link MeterRegistry} to bind to.
+	 */
+	public void bindTo(@NotNull MeterRegistry registry) {
+		GuavaCacheMetrics.monitor(registry, cache, METRIC_NAME);
+	}
+
+	private static HashCode digest(String token) {
+		return Hashing.sha256().hashString(token, StandardCharsets.UTF_8);
+	}
+
+	private static boolean isExpired(DecodedJWT jwt) {
+		Instant expiresAt = jwt.getExpiresAtAsInstant();
+		return expiresAt == null || !expiresAt.isAfter(Instant.now());
+	}
+
+}
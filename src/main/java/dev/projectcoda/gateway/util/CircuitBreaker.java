@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.util;
+
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+
+/**
+ * A circuit breaker around calls to a remote service, which stops calling it while it is slow or failing.
+ * <p>The outcomes of the last {@code window} calls are kept. Calls that fail, or that take at least the slow call
+ * threshold, are <em>bad</em>. Once at least half the window has been recorded and the share of bad calls reaches
+ * the failure rate threshold, the breaker <em>opens</em>, and no calls are permitted for the open duration. Afterwards
+ * it is <em>half-open</em>: a single probe call is permitted, which closes the breaker if it is good, and opens it
+ * again otherwise.</p>
+ * <p>Callers first {@linkplain #tryAcquire() acquire a permit}, and then either {@linkplain Permit#record(long, boolean)
+ * record} the outcome of their call or {@linkplain Permit#release() release} the permit. Every permit is stamped with
+ * the generation of the breaker it was issued in, which changes whenever the breaker changes state, so that a call
+ * permitted before the breaker opened cannot close it, open it again, or let a second probe in once it is
+ * half-open; only the probe's own permit decides the outcome of a half-open breaker.</p>
+ * @author Gerard Sayson
+ */
+public final class CircuitBreaker {
+
+	/**
+	 * The states of a {@link CircuitBreaker}.
+	 */
+	public enum State {
+		/**
+		 * Calls are permitted, and their outcomes are recorded.
+		 */
+		CLOSED,
+		/**
+		 * No calls are permitted.
+		 */
+		OPEN,
+		/**
+		 * A single probe call is permitted, whose outcome decides whether the breaker closes.
+		 */
+		HALF_OPEN
+	}
+
+	private final boolean[] outcomes;
+	private final int failureRateThreshold;
+	private final long slowCallNanos;
+	private final long openNanos;
+
+	private State state = State.CLOSED;
+	private int next;
+	private int recorded;
+	private int bad;
+	private long openedAt;
+	private boolean probing;
+	private long generation;
+
+	/**
+	 * Creates a new, closed {@link CircuitBreaker}.
+	 * @param window The number of most recent calls whose outcomes are kept.
+	 * @param failureRateThreshold The percentage of bad calls in the window at which the breaker opens.
+	 * @param slowCallThreshold The duration from which a call is bad, even if it succeeds.
+	 * @param openDuration How long the breaker stays open before permitting a probe call.
+	 */
+	public CircuitBreaker(int window, int failureRateThreshold, @NotNull Duration slowCallThreshold, @NotNull Duration openDuration) {
+		this.outcomes = new boolean[window];
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallNanos = slowCallThreshold.toNanos();
+		this.openNanos = openDuration.toNanos();
+	}
+
+	/**
+	 * Asks for permission to make a call. Every permit must be {@linkplain Permit#record(long, boolean) recorded}
+	 * or {@linkplain Permit#release() released}.
+	 * @return the permit to make a call, or {@code null} if no call may be made.
+	 */
+	public synchronized Permit tryAcquire() {
+		return switch(state) {
+			case CLOSED -> new Permit(generation);
+			case OPEN -> {
+				if(System.nanoTime() - openedAt < openNanos) yield null;
+				transition(State.HALF_OPEN);
+				probing = true;
+				yield new Permit(generation);
+			}
+			case HALF_OPEN -> {
+				if(probing) yield null;
+				probing = true;
+				yield new Permit(generation);
+			}
+		};
+	}
+
+	private synchronized void record(Permit permit, long elapsedNanos, boolean failed) {
+		if(!permit.settle()) return;
+		boolean isBad = failed || elapsedNanos >= slowCallNanos;
+		switch(state) {
+			case CLOSED -> {
+				if(recorded == outcomes.length) {
+					if(outcomes[next]) bad--;
+				} else {
+					recorded++;
+				}
+				outcomes[next] = isBad;
+				if(isBad) bad++;
+				next = (next + 1) % outcomes.length;
+				if(recorded * 2 >= outcomes.length && bad * 100 >= failureRateThreshold * recorded) open();
+			}
+			case HALF_OPEN -> {
+				probing = false;
+				if(isBad) open();
+				else close();
+			}
+			// no permit is issued while open, so any permit recorded now is stale, and was turned away above.
+			case OPEN -> {}
+		}
+	}
+
+	private synchronized void release(Permit permit) {
+		if(permit.settle() && state == State.HALF_OPEN) probing = false;
+	}
+
+	/**
+	 * @return the current state of this breaker. An open breaker whose open duration has passed is still reported
+	 * as open until the next call is {@linkplain #tryAcquire() acquired}.
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return how long until a call may be permitted again, or zero if it may be permitted now.
+	 */
+	public synchronized Duration getRetryAfter() {
+		return switch(state) {
+			case CLOSED -> Duration.ZERO;
+			case OPEN -> Duration.ofNanos(Math.max(0, openNanos - (System.nanoTime() - openedAt)));
+			// the probe call is in flight; it should not take much longer than a slow call.
+			case HALF_OPEN -> probing ? Duration.ofNanos(slowCallNanos) : Duration.ZERO;
+		};
+	}
+
+	private void open() {
+		transition(State.OPEN);
+		openedAt = System.nanoTime();
+	}
+
+	private void close() {
+		transition(State.CLOSED);
+		next = 0;
+		recorded = 0;
+		bad = 0;
+	}
+
+	private void transition(State to) {
+		state = to;
+		generation++;
+	}
+
+	/**
+	 * A permission to make one call through a {@link CircuitBreaker}, which is settled by either recording the
+	 * outcome of the call or releasing it. Only the first of these counts, and only if the breaker has not changed
+	 * state since the permit was issued; otherwise, the permit is stale, and settling it does nothing.
+	 */
+	public final class Permit {
+
+		private final long generation;
+		private boolean settled;
+
+		private Permit(long generation) {
+			this.generation = generation;
+		}
+
+		/**
+		 * Records the outcome of the permitted call.
+		 * @param elapsedNanos How long the call took, in nanoseconds.
+		 * @param failed Whether the call failed.
+		 */
+		public void record(long elapsedNanos, boolean failed) {
+			CircuitBreaker.this.record(this, elapsedNanos, failed);
+		}
+
+		/**
+		 * Gives back the permit without making the call, e.g. because it could not be scheduled.
+		 */
+		public void release() {
+			CircuitBreaker.this.release(this);
+		}
+
+		// called with the breaker's lock held.
+		private boolean settle() {
+			if(settled) return false;
+			settled = true;
+			return generation == CircuitBreaker.this.generation;
+		}
+
+	}
+
+}
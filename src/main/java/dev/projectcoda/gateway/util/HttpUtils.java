@@ -9,6 +9,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 import java.util.Optional;
 
@@ -18,6 +19,8 @@ import java.util.Optional;
  */
 public final class HttpUtils {
 
+	private static final String BEARER_PREFIX = "Bearer ";
+
 	private HttpUtils() {
 		//no instance
 	}
@@ -34,8 +37,22 @@ public final class HttpUtils {
 	 * @return an {@link Optional} containing the bearer token, if present.
 	 */
 	public static Optional<String> getBearerToken(@NotNull HttpHeaders httpHeaders) {
-		String tok = httpHeaders.getFirst(HttpHeaders.AUTHORIZATION);
-		return Optional.ofNullable(tok == null ? null : tok.split("Bearer ")[1]);
+		return getBearerToken(httpHeaders.getFirst(HttpHeaders.AUTHORIZATION));
+	}
+
+	/**
+	 * Gets the raw bearer token (if present) from the value of an {@link HttpHeaders#AUTHORIZATION Authorization} header.
+	 * The scheme is matched case-insensitively, as per RFC 7235.
+	 * @param authorization The value of the header, or {@code null} if it is absent.
+	 * @return an {@link Optional} containing the bearer token, if present.
+	 * @see #getBearerToken(HttpHeaders)
+	 */
+	public static Optional<String> getBearerToken(@Nullable String authorization) {
+		if(authorization == null || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+			return Optional.empty();
+		}
+		String token = authorization.substring(BEARER_PREFIX.length()).strip();
+		return token.isEmpty() ? Optional.empty() : Optional.of(token);
 	}
 
 	/**
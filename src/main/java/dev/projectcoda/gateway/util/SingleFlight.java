@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.util;
+
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key, so that only the first one is made and the others share its result.
+ * <p>A call is only shared while it is in flight; once it completes, the next call for its key is made anew, so
+ * nothing is cached. Callers that join a call get their own view of its result, which they may cancel without
+ * affecting the others.</p>
+ * @param <K> The type of the keys calls are coalesced by.
+ * @param <V> The type of the results of calls.
+ * @author Gerard Sayson
+ */
+public final class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * Makes a blocking call, or waits for the one in flight for the same key.
+	 * @param key The key of the call.
+	 * @param call The call to make if none is in flight.
+	 * @return the result of the call.
+	 * @throws RuntimeException whatever the call threw, which is shared by every caller that joined it.
+	 */
+	public V get(@NotNull K key, @NotNull Supplier<V> call) {
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+		if(existing != null) {
+			coalesced.increment();
+			try {
+				return existing.join();
+			} catch(CompletionException e) {
+				throw e.getCause() instanceof RuntimeException cause ? cause : e;
+			}
+		}
+		try {
+			V value = call.get();
+			land(key, flight, value, null);
+			return value;
+		} catch(RuntimeException | Error e) {
+			land(key, flight, null, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Starts an asynchronous call, or joins the one in flight for the same key.
+	 * @param key The key of the call.
+	 * @param call The call to start if none is in flight.
+	 * @return the result of the call, once it is known.
+	 * @throws RuntimeException whatever starting the call threw, e.g. a {@link java.util.concurrent.RejectedExecutionException};
+	 * callers that joined it see it as the result.
+	 */
+	public CompletableFuture<V> run(@NotNull K key, @NotNull Supplier<CompletableFuture<V>> call) {
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+		if(existing != null) {
+			coalesced.increment();
+			return existing.copy();
+		}
+		try {
+			call.get().whenComplete((value, e) -> land(key, flight, value, e));
+		} catch(RuntimeException | Error e) {
+			land(key, flight, null, e);
+			throw e;
+		}
+		return flight.copy();
+	}
+
+	/**
+	 * Stops sharing the call in flight for a key, e.g. because its result is known to be outdated. Callers that
+	 * already joined it still get its result, but later ones make a new call.
+	 * @param key The key of the call.
+	 */
+	public void forget(@NotNull K key) {
+		inFlight.remove(key);
+	}
+
+	/**
+	 * @return the number of calls that joined another call instead of being made.
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	private void land(K key, CompletableFuture<V> flight, V value, Throwable e) {
+		// removed first, so that a call arriving now starts afresh rather than joining a finished one.
+		inFlight.remove(key, flight);
+		if(e != null) flight.completeExceptionally(e);
+		else flight.complete(value);
+	}
+
+}
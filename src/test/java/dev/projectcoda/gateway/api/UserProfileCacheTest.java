@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.api;
+
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link UserProfileCache} drops a load that raced with an invalidation of the same user, and keeps
+ * loads that only raced with invalidations of other users. The races are simulated by invalidating from the loader.
+ * @author Gerard Sayson
+ */
+class UserProfileCacheTest {
+
+	private static final UUID ALICE = new UUID(0, 1);
+	private static final UUID BOB = new UUID(0, 2);
+
+	private final UserProfileCache cache = new UserProfileCache(new GatewayConfiguration(), new SimpleMeterRegistry());
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	void dropsLoadsRacingWithTheirUsersInvalidation() {
+		cache.get(ALICE, invalidatingWhileLoading(ALICE));
+		cache.get(ALICE, invalidatingWhileLoading(null));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	void keepsLoadsRacingWithOtherUsersInvalidations() {
+		cache.get(ALICE, invalidatingWhileLoading(BOB));
+		cache.get(ALICE, invalidatingWhileLoading(null));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void dropsOnlyTheInvalidatedUsersOfABatch() {
+		cache.getAll(List.of(ALICE, BOB), uuids -> {
+			cache.invalidate(BOB);
+			uuids.forEach(uuid -> loads.incrementAndGet());
+			return Map.of(ALICE, profile(ALICE), BOB, profile(BOB));
+		});
+		cache.get(ALICE, invalidatingWhileLoading(null));
+		cache.get(BOB, invalidatingWhileLoading(null));
+		assertEquals(3, loads.get());
+	}
+
+	private Function<UUID, Optional<byte[]>> invalidatingWhileLoading(UUID invalidated) {
+		return uuid -> {
+			if(invalidated != null) cache.invalidate(invalidated);
+			loads.incrementAndGet();
+			return Optional.of(profile(uuid));
+		};
+	}
+
+	private static byte[] profile(UUID uuid) {
+		return ("{\"uuid\":\"" + uuid + "\"}").getBytes(StandardCharsets.UTF_8);
+	}
+
+}
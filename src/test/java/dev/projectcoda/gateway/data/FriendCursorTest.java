@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests that every {@link FriendCursor} the server hands out can be read back as it was, including those after a
+ * friend without a sort key, and that malformed cursors are rejected.
+ * @author Gerard Sayson
+ */
+class FriendCursorTest {
+
+	@ParameterizedTest
+	@EnumSource(FriendSort.class)
+	void decodesMissingKeys(FriendSort sort) {
+		assertRoundTrip(new FriendCursor(sort, null, UUID.randomUUID()));
+	}
+
+	@Test
+	void decodesRatings() {
+		assertRoundTrip(new FriendCursor(FriendSort.RATING, 1200, UUID.randomUUID()));
+		assertRoundTrip(new FriendCursor(FriendSort.RATING, -5, UUID.randomUUID()));
+	}
+
+	@Test
+	void decodesUsernamesThatLookLikeMarkers() {
+		for(String username : new String[] {"", "-", "=", "=-", "a\nb", "\n-\n"}) {
+			assertRoundTrip(new FriendCursor(FriendSort.USERNAME, username, UUID.randomUUID()));
+		}
+	}
+
+	@Test
+	void rejectsMalformedCursors() {
+		UUID uuid = UUID.randomUUID();
+		for(String cursor : new String[] {"RATING", "RATING\n" + uuid, "RATING\n\n" + uuid, "RATING\n1200\n" + uuid, "RATING\n=high\n" + uuid}) {
+			String encoded = Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+			assertThrows(IllegalArgumentException.class, () -> FriendCursor.decode(encoded), cursor);
+		}
+	}
+
+	private static void assertRoundTrip(FriendCursor cursor) {
+		assertEquals(cursor, FriendCursor.decode(cursor.encode()));
+	}
+
+}
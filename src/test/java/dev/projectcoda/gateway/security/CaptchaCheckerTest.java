@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the circuit breaker and {@link CaptchaFallback} policies of {@link CaptchaChecker}, against a
+ * {@link SiteVerifyStub}. Verifications taking 200 ms or more are slow, and a single bad verification opens the
+ * breaker for a second.
+ * @author Gerard Sayson
+ */
+class CaptchaCheckerTest {
+
+	private static final Duration OPEN = Duration.ofSeconds(1);
+
+	private SiteVerifyStub stub;
+	private ExecutorService ioExecutor;
+	private CaptchaChecker checker;
+
+	@BeforeEach
+	void startStub() throws IOException {
+		stub = new SiteVerifyStub();
+		stub.setDelay(Duration.ofMillis(300));
+		ioExecutor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterEach
+	void stopStub() throws IOException {
+		if(checker != null) checker.close();
+		ioExecutor.shutdownNow();
+		stub.close();
+	}
+
+	@Test
+	void verifiesWithTheEndpoint() {
+		checker = checker(CaptchaFallback.REJECT, 30);
+		CaptchaChecker.Verdict solved = checker.verify(SiteVerifyStub.SOLVED).join();
+		assertTrue(solved.passed());
+		assertFalse(solved.unverified());
+		assertFalse(checker.verify(SiteVerifyStub.UNSOLVED).join().passed());
+		assertEquals(2, stub.getCalls());
+	}
+
+	@Test
+	void rejectsWithoutCallingWhileOpen() {
+		checker = checker(CaptchaFallback.REJECT, 30);
+		assertUnavailable(checker.verify(SiteVerifyStub.FAIL));
+		CaptchaUnavailableException e = assertUnavailable(checker.verify(SiteVerifyStub.SOLVED));
+		assertTrue(e.getRetryAfter().compareTo(Duration.ZERO) > 0);
+		assertEquals(1, stub.getCalls());
+	}
+
+	@Test
+	void rejectsUnexpectedAnswersLikeFailures() {
+		checker = checker(CaptchaFallback.REJECT, 30);
+		assertUnavailable(checker.verify(SiteVerifyStub.UNEXPECTED));
+		assertUnavailable(checker.verify(SiteVerifyStub.SOLVED));
+		assertEquals(1, stub.getCalls());
+	}
+
+	@Test
+	void admitsUnverifiedOnUnreadableAnswers() {
+		checker = checker(CaptchaFallback.ADMIT, 30);
+		assertTrue(checker.verify(SiteVerifyStub.UNREADABLE).join().unverified());
+		assertTrue(checker.verify(SiteVerifyStub.SOLVED).join().unverified());
+		assertEquals(1, stub.getCalls());
+	}
+
+	@Test
+	void opensOnSlowVerifications() {
+		checker = checker(CaptchaFallback.REJECT, 30);
+		assertTrue(checker.verify(SiteVerifyStub.SLOW).join().passed());
+		assertUnavailable(checker.verify(SiteVerifyStub.SOLVED));
+		assertEquals(1, stub.getCalls());
+	}
+
+	@Test
+	void closesOnceTheProbeIsGood() throws InterruptedException {
+		checker = checker(CaptchaFallback.REJECT, 30);
+		assertUnavailable(checker.verify(SiteVerifyStub.FAIL));
+		Thread.sleep(OPEN.toMillis() + 100);
+		assertTrue(checker.verify(SiteVerifyStub.SOLVED).join().passed());
+		assertTrue(checker.verify(SiteVerifyStub.SOLVED).join().passed());
+		assertEquals(3, stub.getCalls());
+	}
+
+	@Test
+	void admitsUnverifiedWhileOpen() {
+		checker = checker(CaptchaFallback.ADMIT, 30);
+		CaptchaChecker.Verdict failed = checker.verify(SiteVerifyStub.FAIL).join();
+		assertTrue(failed.passed());
+		assertTrue(failed.unverified());
+		assertTrue(checker.verify(SiteVerifyStub.SOLVED).join().unverified());
+		assertEquals(1, stub.getCalls());
+	}
+
+	@Test
+	void queuesUntilTheProbe() {
+		checker = checker(CaptchaFallback.QUEUE, 30);
+		assertTrue(checker.verify(SiteVerifyStub.SLOW).join().passed());
+		long start = System.nanoTime();
+		CaptchaChecker.Verdict queued = checker.verify(SiteVerifyStub.SOLVED).join();
+		assertTrue(queued.passed());
+		assertFalse(queued.unverified());
+		assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(OPEN.dividedBy(2)) > 0);
+		assertEquals(2, stub.getCalls());
+	}
+
+	@Test
+	void rejectsQueuedSignupsThatCannotBeVerifiedInTime() {
+		// 9 s leave no time to queue, after the 2 s connect and 2 s read timeouts and the headroom for hashing and saving.
+		checker = checker(CaptchaFallback.QUEUE, 30, 9);
+		assertTrue(checker.verify(SiteVerifyStub.SLOW).join().passed());
+		assertUnavailable(checker.verify(SiteVerifyStub.SOLVED));
+		assertEquals(1, stub.getCalls());
+	}
+
+	private CaptchaChecker checker(CaptchaFallback fallback, int queueTimeout) {
+		return checker(fallback, queueTimeout, 60);
+	}
+
+	private CaptchaChecker checker(CaptchaFallback fallback, int queueTimeout, int asyncRequestTimeout) {
+		GatewayConfiguration configuration = new GatewayConfiguration();
+		configuration.setRecaptchaSecret("secret");
+		configuration.setRecaptchaVerifyUrl(stub.getUrl());
+		configuration.setRecaptchaReadTimeout(2000);
+		configuration.setRecaptchaSlowCallThreshold(200);
+		configuration.setRecaptchaBreakerWindow(2);
+		configuration.setRecaptchaFailureRateThreshold(50);
+		configuration.setRecaptchaBreakerOpenDuration((int) OPEN.toSeconds());
+		configuration.setRecaptchaFallback(fallback);
+		configuration.setRecaptchaQueueTimeout(queueTimeout);
+		configuration.setAsyncRequestTimeout(asyncRequestTimeout);
+		return new CaptchaChecker(new RestTemplateBuilder(), configuration, new SimpleMeterRegistry(), ioExecutor);
+	}
+
+	private static CaptchaUnavailableException assertUnavailable(CompletableFuture<CaptchaChecker.Verdict> verdict) {
+		CompletionException e = assertThrows(CompletionException.class, verdict::join);
+		return assertInstanceOf(CaptchaUnavailableException.class, e.getCause());
+	}
+
+}
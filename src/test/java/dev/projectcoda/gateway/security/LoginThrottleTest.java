@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link LoginThrottle} counts logins as failures while they are checked, and gives them back once they
+ * succeed or are released. Usernames may fail twice, and client addresses three times, within five minutes.
+ * @author Gerard Sayson
+ */
+class LoginThrottleTest {
+
+	private static final String ADDRESS = "192.0.2.1";
+
+	private final LoginThrottle throttle = throttle();
+
+	@Test
+	void holdsConcurrentAttemptsToTheLimit() {
+		assertNotNull(throttle.tryAttempt("alice", ADDRESS));
+		assertNotNull(throttle.tryAttempt("alice", ADDRESS));
+		// neither of the above has been settled, as if their passwords were still being checked.
+		assertNull(throttle.tryAttempt("alice", ADDRESS));
+		assertNotNull(throttle.tryAttempt("bob", ADDRESS));
+		assertNull(throttle.tryAttempt("carol", ADDRESS));
+	}
+
+	@Test
+	void givesBackSuccessfulAttempts() {
+		for(String username : new String[] {"alice", "bob", "carol", "dave"}) {
+			LoginThrottle.Attempt attempt = throttle.tryAttempt(username, ADDRESS);
+			assertNotNull(attempt);
+			attempt.succeed();
+		}
+	}
+
+	@Test
+	void givesBackReleasedAttempts() {
+		for(int i = 0; i < 4; i++) {
+			LoginThrottle.Attempt attempt = throttle.tryAttempt("alice", ADDRESS);
+			assertNotNull(attempt);
+			attempt.release();
+		}
+	}
+
+	@Test
+	void settlesAttemptsOnce() {
+		LoginThrottle.Attempt attempt = throttle.tryAttempt("alice", ADDRESS);
+		assertNotNull(throttle.tryAttempt("bob", ADDRESS));
+		assertNotNull(attempt);
+		attempt.release();
+		attempt.release();
+		assertNotNull(throttle.tryAttempt("carol", ADDRESS));
+		assertNotNull(throttle.tryAttempt("dave", ADDRESS));
+		assertNull(throttle.tryAttempt("erin", ADDRESS));
+	}
+
+	@Test
+	void retriesOnceTheFailuresSlideOut() {
+		assertEquals(Duration.ZERO, throttle.getRetryAfter("alice", ADDRESS));
+		throttle.tryAttempt("alice", ADDRESS);
+		throttle.tryAttempt("alice", ADDRESS);
+		Duration retryAfter = throttle.getRetryAfter("alice", ADDRESS);
+		assertTrue(retryAfter.compareTo(Duration.ZERO) > 0);
+		assertTrue(retryAfter.compareTo(throttle.getWindow()) <= 0, retryAfter::toString);
+		assertEquals(Duration.ZERO, throttle.getRetryAfter("bob", "192.0.2.2"));
+	}
+
+	private static LoginThrottle throttle() {
+		GatewayConfiguration configuration = new GatewayConfiguration();
+		configuration.setLoginFailureLimit(2);
+		configuration.setLoginFailureAddressLimit(3);
+		configuration.setLoginFailureWindow(300);
+		configuration.setLoginThrottleSize(100);
+		return new LoginThrottle(configuration, new SimpleMeterRegistry());
+	}
+
+}
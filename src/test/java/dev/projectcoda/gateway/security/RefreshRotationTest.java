@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import dev.projectcoda.gateway.api.ErrorResponse;
+import dev.projectcoda.gateway.api.GatewayErrorHandler;
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import dev.projectcoda.gateway.data.UserCredentials;
+import dev.projectcoda.gateway.i18n.ErrorResponses;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that refresh tokens that were already rotated, or that are not refresh tokens at all, are answered with
+ * {@code 401 Unauthorized}, and that revoked tokens of a family invalidate it. Families are kept in memory, by a
+ * {@link RefreshFamilies} that only moves heads.
+ * @author Gerard Sayson
+ */
+class RefreshRotationTest {
+
+	private final Map<String, String> heads = new ConcurrentHashMap<>();
+	private final GatewayErrorHandler errorHandler = new GatewayErrorHandler();
+	private RefreshFamilies families;
+	private RevocationList revocationList;
+	private AuthorizationService authorizationService;
+
+	@BeforeEach
+	void createService() {
+		GatewayConfiguration configuration = new GatewayConfiguration();
+		configuration.setRefreshRotation(true);
+		families = mock(RefreshFamilies.class);
+		revocationList = mock(RevocationList.class);
+		when(families.start(any(), anyString(), any())).thenAnswer(invocation -> {
+			String family = UUID.randomUUID().toString();
+			heads.put(family, invocation.getArgument(1));
+			return family;
+		});
+		when(families.rotate(anyString(), anyString(), anyString()))
+				.thenAnswer(invocation -> heads.replace(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+		authorizationService = new AuthorizationService(configuration, new SimpleMeterRegistry(), revocationList, families);
+	}
+
+	@Test
+	void rotatesTheHead() {
+		String refreshToken = authorizationService.issueRefreshToken(user());
+		String rotated = authorizationService.rotateRefreshToken(refreshToken);
+		assertNotEquals(refreshToken, rotated);
+		authorizationService.rotateRefreshToken(rotated);
+	}
+
+	@Test
+	void rejectsReplayedTokensWith401() {
+		String refreshToken = authorizationService.issueRefreshToken(user());
+		authorizationService.rotateRefreshToken(refreshToken);
+		assertUnauthorized(assertThrows(JWTVerificationException.class, () -> authorizationService.rotateRefreshToken(refreshToken)));
+	}
+
+	@Test
+	void invalidatesTheFamilyOfRevokedTokens() {
+		String refreshToken = authorizationService.issueRefreshToken(user());
+		String family = heads.keySet().iterator().next();
+		// retired tokens are revoked, so a replay that reaches another node after the revocation looks like this.
+		when(revocationList.isRevoked(any())).thenReturn(true);
+		assertUnauthorized(assertThrows(JWTVerificationException.class, () -> authorizationService.rotateRefreshToken(refreshToken)));
+		verify(families).invalidate(family);
+	}
+
+	@Test
+	void rejectsAuthorizationTokensWith401() {
+		String authToken = authorizationService.issueRegularToken(authorizationService.issueRefreshToken(user()));
+		assertUnauthorized(assertThrows(JWTVerificationException.class, () -> authorizationService.rotateRefreshToken(authToken)));
+	}
+
+	private void assertUnauthorized(JWTVerificationException e) {
+		ResponseEntity<ErrorResponse> response = errorHandler.handleJwtVerification(e);
+		assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
+		assertEquals(ErrorResponses.UNAUTHORIZED, response.getBody().getMessage());
+	}
+
+	private static UserCredentials user() {
+		UUID uuid = UUID.randomUUID();
+		return new UserCredentials() {
+			@Override
+			public UUID getUuid() {
+				return uuid;
+			}
+
+			@Override
+			public String getPassword() {
+				return "";
+			}
+
+			@Override
+			public List<String> getPermissions() {
+				return List.of(Permissions.USER);
+			}
+		};
+	}
+
+}
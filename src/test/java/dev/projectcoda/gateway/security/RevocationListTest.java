@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import dev.projectcoda.gateway.conf.GatewayConfiguration;
+import dev.projectcoda.gateway.data.Revocation;
+import dev.projectcoda.gateway.data.RevocationRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests which tokens a revocation of their user applies to, around the second it was made in, as issued-at claims
+ * are in whole seconds.
+ * @author Gerard Sayson
+ */
+class RevocationListTest {
+
+	private static final Algorithm ALGORITHM = Algorithm.HMAC256("revocation-list-test");
+
+	private final UUID user = UUID.randomUUID();
+	private RevocationRepository repository;
+	private RevocationList revocations;
+
+	@BeforeEach
+	void createList() {
+		GatewayConfiguration configuration = new GatewayConfiguration();
+		repository = mock(RevocationRepository.class);
+		revocations = new RevocationList(repository, mock(MongoTemplate.class), configuration, new SimpleMeterRegistry());
+	}
+
+	@Test
+	void revokesTokensIssuedBeforeTheSecondOfTheRevocation() {
+		Instant revokedAt = revokeUser();
+		assertTrue(revocations.isRevoked(token(revokedAt.minusSeconds(1))));
+		assertTrue(revocations.isRevoked(token(revokedAt.minus(1, ChronoUnit.DAYS))));
+	}
+
+	@Test
+	void keepsTokensIssuedInTheSecondOfTheRevocation() {
+		Instant revokedAt = revokeUser();
+		assertFalse(revocations.isRevoked(token(revokedAt)));
+		assertFalse(revocations.isRevoked(token(revokedAt.plusSeconds(1))));
+	}
+
+	@Test
+	void revokesTokensWithoutIssuedAt() {
+		revokeUser();
+		assertTrue(revocations.isRevoked(token(null)));
+	}
+
+	@Test
+	void keepsTokensOfOtherUsers() {
+		Instant revokedAt = revokeUser();
+		DecodedJWT other = JWT.decode(JWT.create().withSubject(UUID.randomUUID().toString()).withIssuedAt(revokedAt.minusSeconds(1)).sign(ALGORITHM));
+		assertFalse(revocations.isRevoked(other));
+	}
+
+	/**
+	 * Revokes the tokens of {@link #user}.
+	 * @return when the revocation was stamped as made.
+	 */
+	private Instant revokeUser() {
+		revocations.revokeUser(user);
+		ArgumentCaptor<Revocation> saved = ArgumentCaptor.forClass(Revocation.class);
+		verify(repository).save(saved.capture());
+		Instant revokedAt = saved.getValue().getRevokedAt();
+		assertEquals(revokedAt.truncatedTo(ChronoUnit.SECONDS), revokedAt);
+		return revokedAt;
+	}
+
+	private DecodedJWT token(Instant issuedAt) {
+		JWTCreator.Builder token = JWT.create().withJWTId(UUID.randomUUID().toString()).withSubject(user.toString());
+		if(issuedAt != null) token.withIssuedAt(issuedAt);
+		return JWT.decode(token.sign(ALGORITHM));
+	}
+
+}
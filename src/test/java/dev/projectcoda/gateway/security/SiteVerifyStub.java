@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the reCAPTCHA verification endpoint, which answers according to the
+ * {@code g-recaptcha-response} it is given, so that slow and failing responses can be injected:
+ * <ul>
+ *     <li><b>{@value #SOLVED}</b> - the reCAPTCHA was solved.</li>
+ *     <li><b>{@value #UNSOLVED}</b> - the reCAPTCHA was not solved.</li>
+ *     <li><b>{@value #SLOW}</b> - the reCAPTCHA was solved, after the {@linkplain #setDelay(Duration) delay}.</li>
+ *     <li><b>{@value #FAIL}</b> - the endpoint answers with {@code 500 Internal Server Error}.</li>
+ *     <li><b>{@value #UNEXPECTED}</b> - the endpoint answers {@code 200 OK} with JSON that holds no verdict.</li>
+ *     <li><b>{@value #UNREADABLE}</b> - the endpoint answers {@code 200 OK} with a body that is not JSON.</li>
+ * </ul>
+ * @author Gerard Sayson
+ */
+public final class SiteVerifyStub implements AutoCloseable {
+
+	public static final String SOLVED = "solved";
+	public static final String UNSOLVED = "unsolved";
+	public static final String SLOW = "slow";
+	public static final String FAIL = "fail";
+	public static final String UNEXPECTED = "unexpected";
+	public static final String UNREADABLE = "unreadable";
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final AtomicInteger calls = new AtomicInteger();
+	private volatile Duration delay = Duration.ofMillis(500);
+
+	/**
+	 * Starts a stub on an ephemeral port of the loopback address.
+	 * @throws IOException if the stub could not be bound.
+	 */
+	public SiteVerifyStub() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/siteverify", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return the URL to point {@link dev.projectcoda.gateway.conf.GatewayConfiguration#getRecaptchaVerifyUrl()} at.
+	 */
+	public String getUrl() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/siteverify";
+	}
+
+	/**
+	 * @return the number of verifications the stub has received.
+	 */
+	public int getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * Sets how long {@value #SLOW} verifications take.
+	 * @param delay The delay.
+	 */
+	public void setDelay(Duration delay) {
+		this.delay = delay;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		calls.incrementAndGet();
+		String query = exchange.getRequestURI().getQuery();
+		String response = query.substring(query.indexOf("response=") + "response=".length()).split("&")[0];
+		try(exchange) {
+			switch(response) {
+				case SOLVED -> respond(exchange, 200, "{\"success\":true}");
+				case UNSOLVED -> respond(exchange, 200, "{\"success\":false,\"error-codes\":[\"invalid-input-response\"]}");
+				case SLOW -> {
+					try {
+						Thread.sleep(delay.toMillis());
+					} catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					respond(exchange, 200, "{\"success\":true}");
+				}
+				case UNEXPECTED -> respond(exchange, 200, "{\"success\":\"maybe\"}");
+				case UNREADABLE -> respond(exchange, 200, "{\"success\":");
+				default -> respond(exchange, 500, "{}");
+			}
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Stops the stub, dropping any verification in flight.
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link TokenMinter} takes its precomputed path, and mints the same tokens as {@link JWT#create()}, for
+ * every {@link SigningAlgorithm}. ECDSA signatures are randomized, so for those only the header and payload are
+ * compared, and the signature is verified instead.
+ * @author Gerard Sayson
+ */
+class TokenMinterTest {
+
+	private static final List<String> PERMISSIONS = List.of(Permissions.USER, Permissions.ADMIN);
+
+	@ParameterizedTest
+	@EnumSource(SigningAlgorithm.class)
+	void takesThePrecomputedPath(SigningAlgorithm signingAlgorithm) {
+		assertTrue(new TokenMinter(signingAlgorithm.create(KeyRing.ephemeral(signingAlgorithm))).isFastPath());
+	}
+
+	@ParameterizedTest
+	@EnumSource(SigningAlgorithm.class)
+	void mintsWhatJwtCreateMints(SigningAlgorithm signingAlgorithm) {
+		Algorithm algorithm = signingAlgorithm.create(KeyRing.ephemeral(signingAlgorithm));
+		TokenMinter minter = new TokenMinter(algorithm);
+		String id = UUID.randomUUID().toString();
+		String subject = UUID.randomUUID().toString();
+		String family = UUID.randomUUID().toString();
+		Instant issuedAt = Instant.now();
+		Instant expiresAt = issuedAt.plus(15, ChronoUnit.DAYS);
+		int mask = Permission.mask(PERMISSIONS);
+
+		assertSameToken(algorithm,
+				create(id, subject, null, issuedAt, expiresAt).withClaim("permissions", PERMISSIONS).withClaim("refreshToken", false).sign(algorithm),
+				minter.mint(id, subject, null, issuedAt, expiresAt, PERMISSIONS, false));
+		assertSameToken(algorithm,
+				create(id, subject, family, issuedAt, expiresAt).withClaim("permissions", PERMISSIONS).withClaim("refreshToken", true).sign(algorithm),
+				minter.mint(id, subject, family, issuedAt, expiresAt, PERMISSIONS, true));
+		assertSameToken(algorithm,
+				create(id, subject, null, issuedAt, expiresAt).withClaim("permissions", mask).withClaim("refreshToken", false).sign(algorithm),
+				minter.mint(id, subject, null, issuedAt, expiresAt, mask, false));
+		assertSameToken(algorithm,
+				create(id, subject, family, issuedAt, expiresAt).withClaim("permissions", mask).withClaim("refreshToken", true).sign(algorithm),
+				minter.mint(id, subject, family, issuedAt, expiresAt, mask, true));
+	}
+
+	@ParameterizedTest
+	@EnumSource(SigningAlgorithm.class)
+	void escapesThroughJwtCreate(SigningAlgorithm signingAlgorithm) {
+		Algorithm algorithm = signingAlgorithm.create(KeyRing.ephemeral(signingAlgorithm));
+		String id = UUID.randomUUID().toString();
+		String subject = "quote\"d";
+		Instant issuedAt = Instant.now();
+		Instant expiresAt = issuedAt.plus(2, ChronoUnit.HOURS);
+		assertSameToken(algorithm,
+				create(id, subject, null, issuedAt, expiresAt).withClaim("permissions", PERMISSIONS).withClaim("refreshToken", false).sign(algorithm),
+				new TokenMinter(algorithm).mint(id, subject, null, issuedAt, expiresAt, PERMISSIONS, false));
+	}
+
+	/**
+	 * Builds a token the way {@link AuthorizationService} did before {@link TokenMinter}, up to its permissions and
+	 * refresh token claims.
+	 */
+	private static JWTCreator.Builder create(String id, String subject, String family, Instant issuedAt, Instant expiresAt) {
+		JWTCreator.Builder builder = JWT.create().withIssuer(AuthorizationService.ISSUER)
+				.withAudience(AuthorizationService.AUDIENCE)
+				.withJWTId(id)
+				.withIssuedAt(issuedAt)
+				.withExpiresAt(expiresAt)
+				.withSubject(subject);
+		if(family != null) builder.withClaim("fam", family);
+		return builder;
+	}
+
+	private static void assertSameToken(Algorithm algorithm, String expected, String actual) {
+		assertEquals(expected.substring(0, expected.lastIndexOf('.')), actual.substring(0, actual.lastIndexOf('.')));
+		if(algorithm instanceof EdDSAAlgorithm) assertEquals(expected, actual);
+		JWT.require(algorithm).build().verify(actual);
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) Gerard Sayson, 2022.
+ * All rights reserved.
+ */
+
+package dev.projectcoda.gateway.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for {@link CircuitBreaker}.
+ * @author Gerard Sayson
+ */
+class CircuitBreakerTest {
+
+	private static final Duration SLOW_CALL = Duration.ofMillis(100);
+	private static final Duration OPEN = Duration.ofMillis(50);
+	private static final long FAST = Duration.ofMillis(1).toNanos();
+
+	private final CircuitBreaker breaker = new CircuitBreaker(4, 50, SLOW_CALL, OPEN);
+
+	@Test
+	void opensOnceFailureRateIsReached() {
+		call(false);
+		call(false);
+		call(true);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		call(true);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertNull(breaker.tryAcquire());
+	}
+
+	@Test
+	void waitsForHalfTheWindowBeforeOpening() {
+		call(true);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		call(true);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	void countsSlowCallsAsBad() {
+		breaker.tryAcquire().record(SLOW_CALL.toNanos(), false);
+		breaker.tryAcquire().record(SLOW_CALL.toNanos(), false);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	void letsASingleProbeThroughOnceHalfOpen() throws InterruptedException {
+		trip();
+		Thread.sleep(OPEN.toMillis() * 2);
+		assertNotNull(breaker.tryAcquire());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertNull(breaker.tryAcquire());
+	}
+
+	@Test
+	void closesWhenTheProbeIsGood() throws InterruptedException {
+		trip();
+		Thread.sleep(OPEN.toMillis() * 2);
+		breaker.tryAcquire().record(FAST, false);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		// the window starts over, so a single bad call does not open the breaker again.
+		call(true);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void opensAgainWhenTheProbeIsBad() throws InterruptedException {
+		trip();
+		Thread.sleep(OPEN.toMillis() * 2);
+		breaker.tryAcquire().record(SLOW_CALL.toNanos(), false);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertNull(breaker.tryAcquire());
+	}
+
+	@Test
+	void letsAnotherProbeThroughOnceTheProbeIsReleased() throws InterruptedException {
+		trip();
+		Thread.sleep(OPEN.toMillis() * 2);
+		breaker.tryAcquire().release();
+		CircuitBreaker.Permit probe = breaker.tryAcquire();
+		assertNotNull(probe);
+		probe.record(FAST, false);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void ignoresPermitsIssuedBeforeTheBreakerOpened() throws InterruptedException {
+		CircuitBreaker.Permit stale = breaker.tryAcquire();
+		trip();
+		Thread.sleep(OPEN.toMillis() * 2);
+		CircuitBreaker.Permit probe = breaker.tryAcquire();
+		assertNotNull(probe);
+
+		stale.record(FAST, false);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		stale.release();
+		assertNull(breaker.tryAcquire());
+
+		probe.record(SLOW_CALL.toNanos(), true);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	void settlesEachPermitOnce() {
+		CircuitBreaker.Permit permit = breaker.tryAcquire();
+		permit.record(FAST, true);
+		permit.record(FAST, true);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	private void call(boolean failed) {
+		breaker.tryAcquire().record(FAST, failed);
+	}
+
+	private void trip() {
+		call(true);
+		call(true);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+}